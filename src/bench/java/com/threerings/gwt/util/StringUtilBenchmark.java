@@ -0,0 +1,98 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.gwt.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the string routines in {@link StringUtil}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringUtilBenchmark
+{
+    /** The number of bytes to hexlate, items to join and characters to truncate to. */
+    @Param({"16", "1024"})
+    public int size;
+
+    @Setup
+    public void setup ()
+    {
+        Random rand = new Random(size);
+        _bytes = new byte[size];
+        rand.nextBytes(_bytes);
+        _hex = StringUtil.hexlate(_bytes);
+        _items = new ArrayList<String>();
+        for (int ii = 0; ii < size; ii++) {
+            _items.add(WikiCorpus.word(rand));
+        }
+        _text = WikiCorpus.get(WikiCorpus.DOCUMENT);
+    }
+
+    @Benchmark
+    public String hexlate ()
+    {
+        return StringUtil.hexlate(_bytes);
+    }
+
+    @Benchmark
+    public byte[] unhexlate ()
+    {
+        return StringUtil.unhexlate(_hex);
+    }
+
+    @Benchmark
+    public String join ()
+    {
+        return StringUtil.join(_items);
+    }
+
+    @Benchmark
+    public String truncate ()
+    {
+        return StringUtil.truncate(_text, size, "...");
+    }
+
+    protected byte[] _bytes;
+    protected String _hex, _text;
+    protected List<String> _items;
+}
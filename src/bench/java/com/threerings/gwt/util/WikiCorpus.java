@@ -0,0 +1,196 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.gwt.util;
+
+import java.util.Random;
+
+/**
+ * Generates the wiki text corpora used by the benchmarks. The corpora are generated from a fixed
+ * seed so that every run measures the same text.
+ */
+public class WikiCorpus
+{
+    /**
+     * A parser that renders the {@link #TOC} markup used by the corpora as a table of contents.
+     * The stock parser has no table of contents markup, so this uses the same hook as a site
+     * would, by emitting the parser's placeholder in place of the {@code {{TOC}}} image.
+     */
+    public static class TOCParser extends WikiParser
+    {
+        @Override protected void appendInternalImage (String uri, String text) {
+            if (TOC_IMAGE.equals(uri)) {
+                sb.append("<<<TOC>>>");
+            } else {
+                super.appendInternalImage(uri, text);
+            }
+        }
+    }
+
+    /** The names of the available corpora, for use in {@code @Param} annotations. */
+    public static final String SNIPPET = "snippet", DOCUMENT = "document", LINKS = "links",
+        TABLES = "tables", LISTS = "lists", HEADINGS = "headings";
+
+    /** The markup used by the corpora to ask for a table of contents, see {@link TOCParser}. */
+    public static final String TOC = "{{TOC}}";
+
+    /**
+     * Returns the named corpus.
+     */
+    public static String get (String name)
+    {
+        Random rand = new Random(name.hashCode());
+        StringBuilder buf = new StringBuilder();
+        if (SNIPPET.equals(name)) {
+            // a forum signature or a one line comment
+            appendSentence(rand, buf);
+            buf.append(" **").append(word(rand)).append("** see [[").append(word(rand));
+            buf.append("]] or http://www.example.com/").append(word(rand)).append(" //thanks//");
+
+        } else if (DOCUMENT.equals(name)) {
+            // a long article with a bit of everything
+            buf.append(TOC).append("\n\n");
+            for (int ss = 0; ss < 40; ss++) {
+                buf.append("== ").append(word(rand)).append(" ").append(word(rand)).append(" ==\n");
+                for (int pp = 0; pp < 4; pp++) {
+                    appendParagraph(rand, buf);
+                }
+                switch (ss % 4) {
+                case 0: buf.append("* ").append(word(rand)).append("\n* ").append(word(rand));
+                    buf.append("\n** ").append(word(rand)).append("\n\n"); break;
+                case 1: buf.append("{{{\nint ").append(word(rand)).append(" = 0; // <code>\n}}}\n");
+                    break;
+                case 2: buf.append("|= ").append(word(rand)).append(" |= ").append(word(rand));
+                    buf.append(" |\n| 1 | 2 |\n\n"); break;
+                case 3: buf.append("> ").append(word(rand)).append(" said\n> ");
+                    appendSentence(rand, buf); buf.append("\n\n"); break;
+                }
+            }
+
+        } else if (LINKS.equals(name)) {
+            for (int ll = 0; ll < 300; ll++) {
+                switch (ll % 4) {
+                case 0: buf.append("[[").append(word(rand)).append(" ").append(word(rand));
+                    buf.append("]] "); break;
+                case 1: buf.append("[[http://www.example.com/").append(word(rand)).append("|");
+                    buf.append(word(rand)).append("]] "); break;
+                case 2: buf.append("http://example.org/").append(word(rand)).append("?q=");
+                    buf.append(word(rand)).append(", "); break;
+                case 3: buf.append("{{").append(word(rand)).append(".png|");
+                    buf.append(word(rand)).append("}} "); break;
+                }
+                if (ll % 20 == 19) {
+                    buf.append("\n\n");
+                }
+            }
+
+        } else if (TABLES.equals(name)) {
+            for (int tt = 0; tt < 10; tt++) {
+                buf.append("|= ").append(word(rand)).append(" |= ").append(word(rand));
+                buf.append(" |= ").append(word(rand)).append(" |\n");
+                for (int rr = 0; rr < 30; rr++) {
+                    buf.append("| **").append(word(rand)).append("** | ").append(rr);
+                    buf.append(" | [[").append(word(rand)).append("]] |\n");
+                }
+                buf.append("\n{|\n");
+                for (int rr = 0; rr < 10; rr++) {
+                    appendSentence(rand, buf);
+                    buf.append(rr % 2 == 0 ? "\n|\n" : "\n|-\n");
+                }
+                buf.append("|}\n\n");
+            }
+
+        } else if (LISTS.equals(name)) {
+            String kinds = "*#>:";
+            for (int ll = 0; ll < 400; ll++) {
+                int depth = 1 + (int)Math.abs(8 * Math.sin(ll / 7.0));
+                char kind = kinds.charAt((ll / 50) % kinds.length());
+                for (int dd = 0; dd < depth; dd++) {
+                    buf.append(kind);
+                }
+                buf.append(" ");
+                appendSentence(rand, buf);
+                buf.append("\n");
+            }
+
+        } else if (HEADINGS.equals(name)) {
+            // a reference page with many short, often identically named, sections
+            buf.append(TOC).append("\n\n");
+            for (int hh = 0; hh < 500; hh++) {
+                String level = "===".substring(0, 1 + hh % 3);
+                buf.append(level).append(" ");
+                switch (hh % 5) {
+                case 0: buf.append("Notes"); break;
+                case 1: buf.append("Examples"); break;
+                case 2: buf.append("**").append(word(rand)).append("** ").append(word(rand));
+                    break;
+                default: buf.append(word(rand)).append(" ").append(word(rand)); break;
+                }
+                buf.append(" ").append(level).append("\n");
+                appendSentence(rand, buf);
+                buf.append("\n\n");
+            }
+
+        } else {
+            throw new IllegalArgumentException("Unknown corpus: " + name);
+        }
+        return buf.toString();
+    }
+
+    protected static void appendParagraph (Random rand, StringBuilder buf)
+    {
+        for (int ss = 0, count = 2 + rand.nextInt(4); ss < count; ss++) {
+            appendSentence(rand, buf);
+            buf.append(ss % 2 == 0 ? " " : "\n");
+        }
+        buf.append("\n\n");
+    }
+
+    protected static void appendSentence (Random rand, StringBuilder buf)
+    {
+        for (int ww = 0, count = 4 + rand.nextInt(10); ww < count; ww++) {
+            if (ww > 0) {
+                buf.append(' ');
+            }
+            switch (rand.nextInt(20)) {
+            case 0: buf.append("**").append(word(rand)).append("**"); break;
+            case 1: buf.append("//").append(word(rand)).append("//"); break;
+            case 2: buf.append("&amp; ").append(word(rand)); break;
+            case 3: buf.append("<").append(word(rand)).append(">"); break;
+            default: buf.append(word(rand)); break;
+            }
+        }
+        buf.append('.');
+    }
+
+    protected static String word (Random rand)
+    {
+        return WORDS[rand.nextInt(WORDS.length)];
+    }
+
+    protected static final String TOC_IMAGE = "TOC";
+
+    protected static final String[] WORDS = {
+        "lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit", "sed", "do",
+        "eiusmod", "tempor", "incididunt", "ut", "labore", "et", "dolore", "magna", "aliqua",
+        "caf\u00e9", "na\u00efve", "\u00fcber", "\u201cquoted\u201d", "\u2014", "it's" };
+}
@@ -0,0 +1,82 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.gwt.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link WikiParser} rendering over the {@link WikiCorpus} corpora. A {@link
+ * WikiCorpus.TOCParser} is used throughout so that the corpora's tables of contents are built.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WikiParserBenchmark
+{
+    @Param({WikiCorpus.SNIPPET, WikiCorpus.DOCUMENT, WikiCorpus.LINKS, WikiCorpus.TABLES,
+            WikiCorpus.LISTS, WikiCorpus.HEADINGS})
+    public String corpus;
+
+    @Setup
+    public void setup ()
+    {
+        _text = WikiCorpus.get(corpus);
+        _parser = new WikiCorpus.TOCParser();
+    }
+
+    @Benchmark
+    public String render ()
+    {
+        return WikiParser.render(new WikiCorpus.TOCParser(), _text);
+    }
+
+    @Benchmark
+    public String renderReused ()
+    {
+        return WikiParser.render(_parser, _text);
+    }
+
+    @Benchmark
+    public String renderSnippet ()
+    {
+        return WikiParser.renderSnippet(_parser, _text);
+    }
+
+    protected String _text;
+    protected WikiParser _parser;
+}
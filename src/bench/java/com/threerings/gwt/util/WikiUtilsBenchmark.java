@@ -0,0 +1,88 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.gwt.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the text processing routines in {@link WikiUtils} over the {@link WikiCorpus} corpora.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WikiUtilsBenchmark
+{
+    @Param({WikiCorpus.SNIPPET, WikiCorpus.DOCUMENT, WikiCorpus.LINKS, WikiCorpus.TABLES,
+            WikiCorpus.LISTS})
+    public String corpus;
+
+    @Setup
+    public void setup ()
+    {
+        _text = WikiCorpus.get(corpus);
+        _escaped = WikiUtils.escapeHTML(_text);
+        _chars = new char[_text.length()];
+    }
+
+    @Benchmark
+    public String escapeHTML ()
+    {
+        return WikiUtils.escapeHTML(_text);
+    }
+
+    @Benchmark
+    public String unescapeHTML ()
+    {
+        return WikiUtils.unescapeHTML(_escaped);
+    }
+
+    @Benchmark
+    public String preprocessWikiText ()
+    {
+        return WikiUtils.preprocessWikiText(_text);
+    }
+
+    @Benchmark
+    public int preprocessWikiTextInPlace ()
+    {
+        return WikiUtils.preprocessWikiText(_text, _chars);
+    }
+
+    protected String _text, _escaped;
+    protected char[] _chars;
+}
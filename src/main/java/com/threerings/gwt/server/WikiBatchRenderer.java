@@ -0,0 +1,204 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.gwt.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Supplier;
+
+import com.threerings.gwt.util.WikiParser;
+import com.threerings.gwt.util.WikiParserPool;
+
+/**
+ * Renders batches of wiki documents in parallel, for example when re-rendering an entire archive
+ * after the wiki dialect or link rules change. Documents are rendered on the supplied executor
+ * (a {@code ForkJoinPool} sized to the number of cores is a fine choice) with parsers drawn
+ * from a pool belonging to this renderer, and are delivered to the caller in their original
+ * order. No state is left behind in the executor's threads, so the executor may be shared.
+ */
+public class WikiBatchRenderer
+{
+    /** Receives rendered documents, in order, on the thread that called {@link #renderAll}. */
+    public interface Callback
+    {
+        /** Called with the index (in the batch), source and XHTML of each rendered document. */
+        void rendered (int index, String wikiText, String html);
+    }
+
+    /** Throughput statistics for a batch of documents. */
+    public static class Stats
+    {
+        /** The number of documents rendered. */
+        public int documents;
+
+        /** The total length of the wiki text and of the rendered XHTML, in characters. */
+        public long inputChars, outputChars;
+
+        /** The wall clock time taken to render the batch, in nanoseconds. */
+        public long elapsedNanos;
+
+        /** Returns the number of documents rendered per second. */
+        public double documentsPerSecond ()
+        {
+            return perSecond(documents);
+        }
+
+        /** Returns the number of characters of wiki text rendered per second. */
+        public double charsPerSecond ()
+        {
+            return perSecond(inputChars);
+        }
+
+        @Override public String toString ()
+        {
+            return "[docs=" + documents + ", in=" + inputChars + ", out=" + outputChars +
+                ", millis=" + elapsedNanos/1000000 + ", docs/s=" + (long)documentsPerSecond() +
+                ", chars/s=" + (long)charsPerSecond() + "]";
+        }
+
+        protected double perSecond (long count)
+        {
+            return (elapsedNanos == 0) ? 0 : count * 1e9 / elapsedNanos;
+        }
+    }
+
+    /**
+     * Creates a renderer that renders plain {@link WikiParser} output.
+     *
+     * @param parallelism the number of documents to render concurrently, generally the number of
+     * threads in the executor.
+     */
+    public WikiBatchRenderer (ExecutorService executor, int parallelism)
+    {
+        this(new Supplier<WikiParser>() {
+            public WikiParser get () {
+                return new WikiParser();
+            }
+        }, executor, parallelism);
+    }
+
+    /**
+     * Creates a renderer that obtains its parsers from the supplied factory. At most {@code
+     * parallelism} of them are retained between documents.
+     *
+     * @param parallelism the number of documents to render concurrently, generally the number of
+     * threads in the executor.
+     */
+    public WikiBatchRenderer (Supplier<? extends WikiParser> factory,
+                              ExecutorService executor, int parallelism)
+    {
+        _executor = executor;
+        _window = Math.max(1, parallelism) * WINDOW_PER_THREAD;
+        // pooled parsers are reset (which trims their buffers) as they are released
+        _parsers = new WikiParserPool(factory, Math.max(1, parallelism));
+    }
+
+    /**
+     * Renders all of the supplied documents, returning their XHTML in the same order.
+     */
+    public List<String> renderAll (Collection<String> documents)
+        throws InterruptedException
+    {
+        final List<String> results = new ArrayList<String>(documents.size());
+        renderAll(documents, new Callback() {
+            public void rendered (int index, String wikiText, String html) {
+                results.add(html);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Renders all of the supplied documents, delivering the XHTML for each to the supplied
+     * callback in document order. Only a bounded number of documents are in flight at any time,
+     * so the documents may be streamed from (and their results streamed to) external storage.
+     *
+     * @return throughput statistics for the batch.
+     */
+    public Stats renderAll (Iterable<String> documents, Callback callback)
+        throws InterruptedException
+    {
+        Stats stats = new Stats();
+        long start = System.nanoTime();
+        LinkedList<Future<String>> pending = new LinkedList<Future<String>>();
+        LinkedList<String> sources = new LinkedList<String>();
+        for (String document : documents) {
+            if (pending.size() >= _window) {
+                deliver(pending, sources, stats, callback);
+            }
+            pending.add(_executor.submit(createTask(document)));
+            sources.add(document);
+        }
+        while (!pending.isEmpty()) {
+            deliver(pending, sources, stats, callback);
+        }
+        stats.elapsedNanos = System.nanoTime() - start;
+        return stats;
+    }
+
+    /**
+     * Waits for the oldest pending document to finish rendering and delivers it to the callback.
+     */
+    protected void deliver (LinkedList<Future<String>> pending, LinkedList<String> sources,
+                            Stats stats, Callback callback)
+        throws InterruptedException
+    {
+        String source = sources.removeFirst(), html;
+        try {
+            html = pending.removeFirst().get();
+        } catch (ExecutionException ee) {
+            // cancel the remainder of the batch and pass the failure along
+            for (Future<String> future : pending) {
+                future.cancel(false);
+            }
+            Throwable cause = ee.getCause();
+            throw (cause instanceof RuntimeException) ? (RuntimeException)cause :
+                new RuntimeException("Failed to render document " + stats.documents, cause);
+        }
+        callback.rendered(stats.documents++, source, html);
+        stats.inputChars += (source == null) ? 0 : source.length();
+        stats.outputChars += html.length();
+    }
+
+    protected Callable<String> createTask (final String wikiText)
+    {
+        return new Callable<String>() {
+            public String call () {
+                return _parsers.render(wikiText);
+            }
+        };
+    }
+
+    protected final ExecutorService _executor;
+    protected final int _window;
+    protected final WikiParserPool _parsers;
+
+    /** The number of documents we keep in flight for each concurrently rendering thread. */
+    protected static final int WINDOW_PER_THREAD = 4;
+}
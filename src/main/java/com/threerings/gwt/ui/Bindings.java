@@ -21,6 +21,9 @@
 
 package com.threerings.gwt.ui;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.google.gwt.event.dom.client.ChangeEvent;
 import com.google.gwt.event.dom.client.ChangeHandler;
 import com.google.gwt.event.dom.client.ClickEvent;
@@ -33,6 +36,8 @@ import com.google.gwt.event.dom.client.MouseOutEvent;
 import com.google.gwt.event.dom.client.MouseOutHandler;
 import com.google.gwt.event.dom.client.MouseOverEvent;
 import com.google.gwt.event.dom.client.MouseOverHandler;
+import com.google.gwt.event.logical.shared.AttachEvent;
+import com.google.gwt.event.shared.HandlerRegistration;
 import com.google.gwt.user.client.ui.FocusWidget;
 import com.google.gwt.user.client.ui.HasText;
 import com.google.gwt.user.client.ui.TextBoxBase;
@@ -44,6 +49,11 @@ import com.threerings.gwt.util.Value;
 
 /**
  * Handles the binding of various widget states to dynamic {@link Value}s.
+ *
+ * <p>A binding listens to its value only while (at least one of) its target widgets is attached
+ * to the DOM, and brings the targets up to date when one is attached again. So a widget that is
+ * thrown away is not kept alive by the value, nor updated by it. Each binding also returns a
+ * registration, which removes it entirely.</p>
  */
 public class Bindings
 {
@@ -53,32 +63,47 @@ public class Bindings
         Widget createWidget ();
     }
 
+    /**
+     * Adds the supplied listener to the supplied value and triggers it with the current value,
+     * much like {@link Value#addListenerAndTrigger}. But the listener is only added to the value
+     * while at least one of the supplied widgets is attached to the DOM (or always, if none are
+     * supplied), and is triggered again whenever one is reattached.
+     *
+     * @return a registration that removes the listener for good.
+     */
+    public static <T> HandlerRegistration bind (
+        Value<T> value, Value.Listener<T> listener, Object... targets)
+    {
+        return new Binding<T>(value, listener, targets);
+    }
+
     /**
      * Binds the enabledness state of the target widget to the supplied boolean value.
      */
-    public static void bindEnabled (Value<Boolean> value, final FocusWidget... targets)
+    public static HandlerRegistration bindEnabled (Value<Boolean> value,
+                                                   final FocusWidget... targets)
     {
-        value.addListenerAndTrigger(new Value.Listener<Boolean>() {
+        return bind(value, new Value.Listener<Boolean>() {
             public void valueChanged (Boolean enabled) {
                 for (FocusWidget target : targets) {
                     target.setEnabled(enabled);
                 }
             }
-        });
+        }, (Object[])targets);
     }
 
     /**
      * Binds the visible state of the target widget to the supplied boolean value.
      */
-    public static void bindVisible (Value<Boolean> value, final Widget... targets)
+    public static HandlerRegistration bindVisible (Value<Boolean> value, final Widget... targets)
     {
-        value.addListenerAndTrigger(new Value.Listener<Boolean>() {
+        return bind(value, new Value.Listener<Boolean>() {
             public void valueChanged (Boolean visible) {
                 for (Widget target : targets) {
                     target.setVisible(visible);
                 }
             }
-        });
+        }, (Object[])targets);
     }
 
     /**
@@ -87,17 +112,21 @@ public class Bindings
      * the first time the value transitions to true, at which point the visiblity of the created
      * widget will be bound to subsequent changes of the value.
      */
-    public static void bindVisible (final Value<Boolean> value, final Thunk thunk)
+    public static HandlerRegistration bindVisible (final Value<Boolean> value, final Thunk thunk)
     {
         Preconditions.checkNotNull(thunk, "thunk");
-        value.addListenerAndTrigger(new Value.Listener<Boolean>() {
+        final Registrations regs = new Registrations(), trigger = new Registrations();
+        regs.add(trigger);
+        // the binding may fire before it is returned, in which case adding it removes it at once
+        trigger.add(bind(value, new Value.Listener<Boolean>() {
             public void valueChanged (Boolean visible) {
                 if (visible) {
-                    value.removeListener(this);
-                    bindVisible(value, thunk.createWidget());
+                    trigger.removeHandler();
+                    regs.add(bindVisible(value, thunk.createWidget()));
                 }
             }
-        });
+        }));
+        return regs;
     }
 
     /**
@@ -120,18 +149,21 @@ public class Bindings
      * ways: interactive changes to the toggle button will update the value and changes to the
      * value will update the state of the toggle button.
      */
-    public static void bindDown (final Value<Boolean> value, final ToggleButton toggle)
+    public static HandlerRegistration bindDown (final Value<Boolean> value,
+                                               final ToggleButton toggle)
     {
-        toggle.addClickHandler(new ClickHandler() {
+        Registrations regs = new Registrations();
+        regs.add(toggle.addClickHandler(new ClickHandler() {
             public void onClick (ClickEvent event) {
                 value.updateIf(toggle.isDown());
             }
-        });
-        value.addListenerAndTrigger(new Value.Listener<Boolean>() {
+        }));
+        regs.add(bind(value, new Value.Listener<Boolean>() {
             public void valueChanged (Boolean value) {
                 toggle.setDown(value);
             }
-        });
+        }, toggle));
+        return regs;
     }
 
     /**
@@ -139,9 +171,9 @@ public class Bindings
      * in that only changes to the value will be reflected in the text-having widget. It is
      * expected that no other changes will be made to the widget.
      */
-    public static void bindLabel (final Value<String> value, final HasText target)
+    public static HandlerRegistration bindLabel (final Value<String> value, final HasText target)
     {
-        value.addListenerAndTrigger(new Value.Listener<String>() {
+        return bind(value, new Value.Listener<String>() {
             public void valueChanged (String value) {
                 // avoid updating the target if the value is already the same; in the case where
                 // the target is a TextBox, setting the text will move the cursor to the end of the
@@ -150,7 +182,7 @@ public class Bindings
                     target.setText(value);
                 }
             }
-        });
+        }, target);
     }
 
     /**
@@ -159,19 +191,21 @@ public class Bindings
      * box will update the value. The value is updated on key up as well as on change so that both
      * keyboard initiated changes and non-keyboard initiated changes (paste) are handled.
      */
-    public static void bindText (final Value<String> value, final TextBoxBase text)
+    public static HandlerRegistration bindText (final Value<String> value, final TextBoxBase text)
     {
-        text.addKeyUpHandler(new KeyUpHandler() {
+        Registrations regs = new Registrations();
+        regs.add(text.addKeyUpHandler(new KeyUpHandler() {
             public void onKeyUp (KeyUpEvent event) {
                 value.updateIf(((TextBoxBase)event.getSource()).getText());
             }
-        });
-        text.addChangeHandler(new ChangeHandler() {
+        }));
+        regs.add(text.addChangeHandler(new ChangeHandler() {
             public void onChange (ChangeEvent event) {
                 value.updateIf(((TextBoxBase)event.getSource()).getText());
             }
-        });
-        bindLabel(value, text);
+        }));
+        regs.add(bindLabel(value, text));
+        return regs;
     }
 
     /**
@@ -194,10 +228,11 @@ public class Bindings
      * @param onStyle the style name to be applied when the value is true, or null.
      * @param offStyle the style name to be applied when the value is false, or null.
      */
-    public static void bindStateStyle (Value<Boolean> value, final String onStyle,
-                                       final String offStyle, final Widget... targets)
+    public static HandlerRegistration bindStateStyle (Value<Boolean> value, final String onStyle,
+                                                      final String offStyle,
+                                                      final Widget... targets)
     {
-        value.addListenerAndTrigger(new Value.Listener<Boolean>() {
+        return bind(value, new Value.Listener<Boolean>() {
             public void valueChanged (Boolean value) {
                 String add, remove;
                 if (value) {
@@ -216,7 +251,87 @@ public class Bindings
                     }
                 }
             }
-        });
+        }, (Object[])targets);
+    }
+
+    /** A registration that removes a collection of registrations. */
+    protected static class Registrations implements HandlerRegistration
+    {
+        /** Adds a registration to be removed with this one, or removes it at once if this one has
+         * already been removed. */
+        public void add (HandlerRegistration reg) {
+            if (_removed) {
+                reg.removeHandler();
+            } else {
+                _regs.add(reg);
+            }
+        }
+
+        // from interface HandlerRegistration
+        public void removeHandler () {
+            _removed = true;
+            for (HandlerRegistration reg : _regs) {
+                reg.removeHandler();
+            }
+            _regs.clear();
+        }
+
+        protected List<HandlerRegistration> _regs = new ArrayList<HandlerRegistration>();
+        protected boolean _removed;
+    }
+
+    /** Used by {@link #bind}. */
+    protected static class Binding<T> extends Registrations implements AttachEvent.Handler
+    {
+        public Binding (Value<T> value, Value.Listener<T> listener, Object... targets) {
+            _value = value;
+            _listener = listener;
+            boolean tracked = false;
+            for (Object target : targets) {
+                if (target instanceof Widget) {
+                    Widget widget = (Widget)target;
+                    add(widget.addAttachHandler(this));
+                    if (widget.isAttached()) {
+                        _attached++;
+                    }
+                    tracked = true;
+                }
+            }
+            if (!tracked) {
+                _attached = 1; // we've no way of knowing when to unbind, so stay bound
+            }
+            if (_attached > 0) {
+                _value.addListener(_listener);
+            }
+            _listener.valueChanged(_value.get());
+        }
+
+        // from interface AttachEvent.Handler
+        public void onAttachOrDetach (AttachEvent event) {
+            if (_removed) {
+                return;
+            }
+            if (event.isAttached()) {
+                if (_attached++ == 0) {
+                    _value.addListener(_listener);
+                    _listener.valueChanged(_value.get());
+                }
+            } else if (--_attached == 0) {
+                _value.removeListener(_listener);
+            }
+        }
+
+        @Override // from Registrations
+        public void removeHandler () {
+            if (!_removed && _attached > 0) {
+                _value.removeListener(_listener);
+            }
+            super.removeHandler();
+        }
+
+        protected Value<T> _value;
+        protected Value.Listener<T> _listener;
+        protected int _attached;
     }
 
     protected static class HoverHandler implements MouseOverHandler, MouseOutHandler
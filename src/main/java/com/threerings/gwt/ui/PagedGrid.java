@@ -22,6 +22,9 @@
 package com.threerings.gwt.ui;
 
 import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
 
 import com.google.gwt.user.client.ui.Grid;
 import com.google.gwt.user.client.ui.HTMLTable;
@@ -72,24 +75,49 @@ public abstract class PagedGrid<T> extends PagedWidget<T>
     {
         int limit = list.size();
         int cells = padToFullPage() ? Math.max(count, limit) : limit;
-        Grid grid = new Grid((int)Math.ceil(cells / (float)_cols),
-                             Math.min(_cols, cells));
-        grid.setStyleName("Grid");
-        grid.setCellPadding(0);
-        grid.setCellSpacing(0);
-        grid.setWidth("100%");
+        int rows = (int)Math.ceil(cells / (float)_cols), cols = Math.min(_cols, cells);
+        boolean reuse = reuseWidgets();
+        Grid grid;
+        if (reuse && _grid != null) {
+            grid = _grid;
+            grid.resize(rows, cols);
+        } else {
+            grid = new Grid(rows, cols);
+            grid.setStyleName("Grid");
+            grid.setCellPadding(0);
+            grid.setCellSpacing(0);
+            grid.setWidth("100%");
+        }
 
+        Map<T, Widget> widgets = Maps.newIdentityHashMap();
         for (int ii = 0; ii < limit; ii++) {
             int row = (ii / _cols), col = (ii % _cols);
             T item = ii >= list.size() ? null : list.get(ii);
-            Widget widget = createWidget(item);
-            if (widget != null) {
+            Widget widget = reuse ? _widgets.remove(item) : null;
+            if (widget == null) {
+                widget = createWidget(item);
+            }
+            if (widget == null) {
+                grid.clearCell(row, col);
+            } else if (grid.getWidget(row, col) != widget) {
                 grid.setWidget(row, col, widget);
             }
+            if (reuse && widget != null) {
+                widgets.put(item, widget);
+            }
             formatCell(grid.getCellFormatter(), row, col, limit);
             formatCell(grid.getCellFormatter(), row, col, item);
         }
+        // clear out any cells left over from the previous page
+        for (int ii = limit, ll = rows * cols; reuse && ii < ll; ii++) {
+            grid.clearCell(ii / _cols, ii % _cols);
+            grid.getCellFormatter().setStyleName(ii / _cols, ii % _cols, "");
+        }
 
+        if (reuse) {
+            _grid = grid;
+            _widgets = widgets;
+        }
         return grid;
     }
 
@@ -128,6 +156,18 @@ public abstract class PagedGrid<T> extends PagedWidget<T>
         return false;
     }
 
+    /**
+     * If a derived class returns true here, the grid and the widgets for its items are kept from
+     * page to page, and a widget is only created for an item that was not on the previous page.
+     * Items are matched by identity, so an item replaced by an updated (but equal) instance gets
+     * a new widget. This saves rebuilding the whole grid when, say, an item is removed, but should
+     * only be used if each widget depends on nothing but its item.
+     */
+    protected boolean reuseWidgets ()
+    {
+        return false;
+    }
+
     /** Create a widget to put in the grid. */
     protected abstract Widget createWidget (T item);
 
@@ -135,4 +175,7 @@ public abstract class PagedGrid<T> extends PagedWidget<T>
     protected HasAlignment.VerticalAlignmentConstant _cellVertAlign = HasAlignment.ALIGN_MIDDLE;
 
     protected int _rows, _cols;
+
+    protected Grid _grid;
+    protected Map<T, Widget> _widgets = Maps.newIdentityHashMap();
 }
@@ -26,6 +26,7 @@ import java.util.List;
 
 import com.google.gwt.event.dom.client.ClickEvent;
 import com.google.gwt.event.dom.client.ClickHandler;
+import com.google.gwt.event.shared.HandlerRegistration;
 import com.google.gwt.user.client.rpc.AsyncCallback;
 import com.google.gwt.user.client.ui.Button;
 import com.google.gwt.user.client.ui.FlexTable;
@@ -35,7 +36,9 @@ import com.google.gwt.user.client.ui.HorizontalPanel;
 import com.google.gwt.user.client.ui.Label;
 import com.google.gwt.user.client.ui.Widget;
 
+import com.threerings.gwt.util.AsyncCountModel;
 import com.threerings.gwt.util.DataModel;
+import com.threerings.gwt.util.Value;
 
 /**
  * Displays a paginated collection of UI elements.
@@ -124,12 +127,22 @@ public abstract class PagedWidget<T> extends FlowPanel
 
     /**
      * Configures this panel with a {@link DataModel} and kicks the data
-     * retrieval off by requesting the specified page to be displayed.
+     * retrieval off by requesting the specified page to be displayed. If the model is an {@link
+     * AsyncCountModel}, the navigation is updated when the model's count arrives (while this
+     * panel is attached to the DOM, see {@link Bindings}).
      */
     public void setModel (DataModel<T> model, int page)
     {
+        if (_countBinding != null) {
+            _countBinding.removeHandler();
+            _countBinding = null;
+        }
         _model = model;
         displayPage(page, true);
+        if (_model instanceof AsyncCountModel<?>) {
+            _countBinding = Bindings.bind(
+                ((AsyncCountModel<?>)_model).getCountValue(), _countListener, this);
+        }
     }
 
     /**
@@ -167,21 +180,24 @@ public abstract class PagedWidget<T> extends FlowPanel
         configureLoadingNavi(_controls, 0, _infoCol);
 
         _page = Math.max(page, 0);
+        _fetching = true;
 
         final boolean overQuery = (_model.getItemCount() < 0);
         final int count = _resultsPerPage;
         final int start = _resultsPerPage * page;
         _model.doFetchRows(start, overQuery ? (count + 1) : count, new AsyncCallback<List<T>>() {
             public void onSuccess (List<T> result) {
+                _fetching = false;
                 if (overQuery) {
                     // if we requested 1 item too many, see if we got it
                     if (result.size() < (count + 1)) {
                         // no: this is the last batch of items, woohoo
                         _lastItem = start + result.size();
                     } else {
-                        // yes: strip it before anybody else gets to see it
-                        result.remove(count);
-                        _lastItem = -1;
+                        // yes: hide it from anybody else (the list may belong to the model)
+                        result = result.subList(0, count);
+                        // the model may have learned its count while we were fetching
+                        _lastItem = Math.max(_model.getItemCount(), -1);
                     }
                 } else {
                     // a valid item count should be available at this point
@@ -190,6 +206,7 @@ public abstract class PagedWidget<T> extends FlowPanel
                 displayResults(start, count, result);
             }
             public void onFailure (Throwable caught) {
+                _fetching = false;
                 reportFailure(caught);
             }
         });
@@ -331,6 +348,22 @@ public abstract class PagedWidget<T> extends FlowPanel
 
     protected abstract Widget createContents (int start, int count, List<T> list);
 
+    /**
+     * Called when an {@link AsyncCountModel} learns its count. If we're displaying a page for which
+     * we didn't know the count, the navigation is updated to reflect it.
+     */
+    protected void itemCountChanged (int count)
+    {
+        // if a page is being fetched, its arrival will configure the navigation
+        if (count < 0 || _lastItem >= 0 || _fetching) {
+            return;
+        }
+        _lastItem = count;
+        int start = getOffset();
+        _next.setEnabled(start + _resultsPerPage < _lastItem);
+        configureNavi(_controls, 0, _infoCol, start, _resultsPerPage, _lastItem);
+    }
+
     /**
      * Called when the user clicks a forward or back button.
      */
@@ -379,4 +412,12 @@ public abstract class PagedWidget<T> extends FlowPanel
     protected int _lastItem;
     protected int _page;
     protected int _resultsPerPage;
+    protected boolean _fetching;
+    protected HandlerRegistration _countBinding;
+
+    protected Value.Listener<Integer> _countListener = new Value.Listener<Integer>() {
+        public void valueChanged (Integer count) {
+            itemCountChanged(count);
+        }
+    };
 }
@@ -32,6 +32,7 @@ import com.google.gwt.event.dom.client.MouseUpEvent;
 import com.google.gwt.event.dom.client.MouseUpHandler;
 import com.google.gwt.event.logical.shared.CloseEvent;
 import com.google.gwt.event.logical.shared.CloseHandler;
+import com.google.gwt.event.shared.HandlerRegistration;
 import com.google.gwt.user.client.DOM;
 import com.google.gwt.user.client.Element;
 import com.google.gwt.user.client.Window;
@@ -303,33 +304,45 @@ public class Popups
      * Binds the popped up state of a popup to the supplied boolean value and vice versa (i.e. if
      * the popup is popped down, the value will be updated to false). The popup is not created
      * until the first time the value is true.
+     *
+     * @return a registration that removes the binding.
      */
-    public static void bindPopped (final Value<Boolean> popped, final Thunk thunk)
+    public static HandlerRegistration bindPopped (final Value<Boolean> popped, final Thunk thunk)
     {
         Preconditions.checkNotNull(thunk, "thunk");
-        popped.addListenerAndTrigger(new Value.Listener<Boolean>() {
+        final Bindings.Registrations regs = new Bindings.Registrations();
+        final Bindings.Registrations trigger = new Bindings.Registrations();
+        regs.add(trigger);
+        // the binding may fire before it is returned, in which case adding it removes it at once
+        trigger.add(Bindings.bind(popped, new Value.Listener<Boolean>() {
             public void valueChanged (Boolean visible) {
                 if (visible) {
-                    popped.removeListener(this);
-                    bindPopped(popped, thunk.createPopup());
+                    trigger.removeHandler();
+                    regs.add(bindPopped(popped, thunk.createPopup()));
                 }
             }
-        });
+        }));
+        return regs;
     }
 
     /**
      * Binds the popped up state of a popup to the supplied boolean value and vice versa (i.e. if
-     * the popup is popped down, the value will be updated to false).
+     * the popup is popped down, the value will be updated to false). A popup is detached whenever
+     * it is hidden, so unlike the {@link Bindings}, this binding lasts until it is removed.
+     *
+     * @return a registration that removes the binding.
      */
-    public static void bindPopped (final Value<Boolean> popped, final PopupPanel panel)
+    public static HandlerRegistration bindPopped (final Value<Boolean> popped,
+                                                  final PopupPanel panel)
     {
         Preconditions.checkNotNull(panel, "panel");
-        panel.addCloseHandler(new CloseHandler<PopupPanel>() {
+        Bindings.Registrations regs = new Bindings.Registrations();
+        regs.add(panel.addCloseHandler(new CloseHandler<PopupPanel>() {
             public void onClose (CloseEvent<PopupPanel> event) {
                 popped.update(false);
             }
-        });
-        popped.addListenerAndTrigger(new Value.Listener<Boolean>() {
+        }));
+        regs.add(Bindings.bind(popped, new Value.Listener<Boolean>() {
             public void valueChanged (Boolean visible) {
                 if (visible) {
                     panel.center();
@@ -337,44 +350,58 @@ public class Popups
                     panel.hide();
                 }
             }
-        });
+        }));
+        return regs;
     }
 
     /**
      * Binds the popped up state of a popup to the supplied boolean value and vice versa (i.e. if
      * the popup is popped down, the value will be updated to false). The popup is not created
-     * until the first time the value is true.
+     * until the first time the value is true. The binding lasts while the target is attached to
+     * the DOM (see {@link Bindings}).
+     *
+     * @return a registration that removes the binding.
      */
-    public static void bindPopped (final Value<Boolean> popped, final Position pos,
-                                   final Widget target, final Thunk thunk)
+    public static HandlerRegistration bindPopped (final Value<Boolean> popped, final Position pos,
+                                                  final Widget target, final Thunk thunk)
     {
         Preconditions.checkNotNull(target, "target");
         Preconditions.checkNotNull(thunk, "thunk");
-        popped.addListenerAndTrigger(new Value.Listener<Boolean>() {
+        final Bindings.Registrations regs = new Bindings.Registrations();
+        final Bindings.Registrations trigger = new Bindings.Registrations();
+        regs.add(trigger);
+        // removing the binding (rather than just its listener) keeps a reattached target from
+        // adding it back and creating a second popup
+        trigger.add(Bindings.bind(popped, new Value.Listener<Boolean>() {
             public void valueChanged (Boolean visible) {
                 if (visible) {
-                    popped.removeListener(this);
-                    bindPopped(popped, pos, target, thunk.createPopup());
+                    trigger.removeHandler();
+                    regs.add(bindPopped(popped, pos, target, thunk.createPopup()));
                 }
             }
-        });
+        }, target));
+        return regs;
     }
 
     /**
      * Binds the popped up state of a popup to the supplied boolean value and vice versa (i.e. if
-     * the popup is popped down, the value will be updated to false).
+     * the popup is popped down, the value will be updated to false). The binding lasts while the
+     * target is attached to the DOM (see {@link Bindings}).
+     *
+     * @return a registration that removes the binding.
      */
-    public static void bindPopped (final Value<Boolean> popped, final Position pos,
-                                   final Widget target, final PopupPanel panel)
+    public static HandlerRegistration bindPopped (final Value<Boolean> popped, final Position pos,
+                                                  final Widget target, final PopupPanel panel)
     {
         Preconditions.checkNotNull(target, "target");
         Preconditions.checkNotNull(panel, "panel");
-        panel.addCloseHandler(new CloseHandler<PopupPanel>() {
+        Bindings.Registrations regs = new Bindings.Registrations();
+        regs.add(panel.addCloseHandler(new CloseHandler<PopupPanel>() {
             public void onClose (CloseEvent<PopupPanel> event) {
                 popped.update(false);
             }
-        });
-        popped.addListenerAndTrigger(new Value.Listener<Boolean>() {
+        }));
+        regs.add(Bindings.bind(popped, new Value.Listener<Boolean>() {
             public void valueChanged (Boolean visible) {
                 if (visible) {
                     show(panel, pos, target);
@@ -382,7 +409,8 @@ public class Popups
                     panel.hide();
                 }
             }
-        });
+        }, target));
+        return regs;
     }
 
     /**
@@ -62,7 +62,7 @@ public class ValueHTML<T> extends HTML
     @Override // from Widget
     public void onUnload ()
     {
-        super.onLoad();
+        super.onUnload();
         _value.removeListener(this);
     }
 
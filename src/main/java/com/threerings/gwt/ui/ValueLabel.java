@@ -67,7 +67,7 @@ public class ValueLabel<T> extends Label
     @Override // from Widget
     public void onUnload ()
     {
-        super.onLoad();
+        super.onUnload();
         _value.removeListener(this);
     }
 
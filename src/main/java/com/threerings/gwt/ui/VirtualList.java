@@ -0,0 +1,314 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.gwt.ui;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.google.gwt.event.dom.client.ScrollEvent;
+import com.google.gwt.event.dom.client.ScrollHandler;
+import com.google.gwt.event.shared.HandlerRegistration;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+import com.google.gwt.user.client.ui.AbsolutePanel;
+import com.google.gwt.user.client.ui.ScrollPanel;
+import com.google.gwt.user.client.ui.Widget;
+
+import com.threerings.gwt.util.AsyncCountModel;
+import com.threerings.gwt.util.DataModel;
+import com.threerings.gwt.util.Value;
+
+/**
+ * Displays the items of a {@link DataModel} as a scrolling list of fixed height rows. Unlike
+ * {@link PagedWidget}, which rebuilds its contents for every page, this creates widgets only for
+ * the rows in view. Rows that scroll out of view are hidden and reused for the rows that scroll
+ * into view, and the items are fetched from the model in blocks as they are needed.
+ *
+ * <p>When the items change, rows still showing the very same item object are just repositioned
+ * (if an item above them was removed, say). Every other row is updated, including one whose item
+ * was replaced by an updated instance that is equal to it.</p>
+ *
+ * <p>The list must be given a height (via CSS or {@link #setHeight}), which determines how many
+ * rows are in view.</p>
+ */
+public abstract class VirtualList<T, W extends Widget> extends ScrollPanel
+{
+    /**
+     * Creates a list whose rows are the specified number of pixels high, which fetches items from
+     * its model in blocks of the specified size. The block size should be at least the number of
+     * rows in view.
+     */
+    public VirtualList (int rowHeight, int blockSize)
+    {
+        _rowHeight = rowHeight;
+        _blockSize = blockSize;
+
+        setStyleName("virtualList");
+        _rows.setWidth("100%");
+        setWidget(_rows);
+        addScrollHandler(new ScrollHandler() {
+            public void onScroll (ScrollEvent event) {
+                update();
+            }
+        });
+    }
+
+    /**
+     * Configures this list with a {@link DataModel} and displays its first rows. If the model is
+     * an {@link AsyncCountModel}, the list's extent is updated when the model's count arrives
+     * (while this list is attached to the DOM, see {@link Bindings}).
+     */
+    public void setModel (DataModel<T> model)
+    {
+        if (_countBinding != null) {
+            _countBinding.removeHandler();
+            _countBinding = null;
+        }
+        _model = model;
+
+        _offset = 0;
+        _items = Collections.emptyList();
+        _end = -1;
+        _loaded = false;
+        _fetchCount = 0;
+        _fetchId++;
+        setVerticalScrollPosition(0);
+        layoutRows();
+        update();
+
+        if (_model instanceof AsyncCountModel<?>) {
+            _countBinding = Bindings.bind(
+                ((AsyncCountModel<?>)_model).getCountValue(), _countListener, this);
+        }
+    }
+
+    /**
+     * Returns the model in use by this list or null if we have no model.
+     */
+    public DataModel<T> getModel ()
+    {
+        return _model;
+    }
+
+    /**
+     * Fetches the items in view again, updating the rows whose items have changed. The rows
+     * continue to show the old items until the new ones arrive.
+     */
+    public void refresh ()
+    {
+        _stale = true;
+        _fetchCount = 0;
+        update();
+    }
+
+    /**
+     * Removes the specified item from the model and updates the rows in view.
+     */
+    public void removeItem (T item)
+    {
+        if (_model == null) {
+            return; // if we have no model, stop here
+        }
+        _model.removeItem(item);
+        refresh();
+    }
+
+    @Override // from Widget
+    protected void onLoad ()
+    {
+        super.onLoad();
+        update(); // now we know how many rows are in view
+    }
+
+    /**
+     * Shows the rows in view, first fetching the items for them if we don't have them.
+     */
+    protected void update ()
+    {
+        if (_model == null) {
+            return;
+        }
+        int first = getFirstVisible(), last = Math.min(getLastVisible(), getRowCount());
+        if (!_stale && first >= _offset && last <= _offset + _items.size()) {
+            layoutRows();
+            return;
+        }
+
+        // fetch the blocks spanning the rows in view, unless we're already doing so
+        final int start = (first / _blockSize) * _blockSize;
+        final int count = Math.max((last - start + _blockSize - 1) / _blockSize, 1) * _blockSize;
+        if (start == _fetchStart && count == _fetchCount) {
+            return;
+        }
+        _fetchStart = start;
+        _fetchCount = count;
+        final int fetchId = ++_fetchId;
+        _model.doFetchRows(start, count, new AsyncCallback<List<T>>() {
+            public void onSuccess (List<T> items) {
+                if (fetchId != _fetchId) {
+                    return; // we've since moved on
+                }
+                _fetchCount = 0;
+                _offset = start;
+                // we hold onto these until we next fetch, which may be after the model changes
+                _items = Lists.newArrayList(items);
+                _stale = false;
+                _loaded = true;
+                // if the model can't tell us where its items end, find out by running out of them
+                if (items.size() < count) {
+                    _end = start + items.size();
+                } else if (start + count > _end) {
+                    _end = -1;
+                }
+                layoutRows();
+                update(); // in case we've been scrolled while fetching
+            }
+            public void onFailure (Throwable caught) {
+                if (fetchId != _fetchId) {
+                    return;
+                }
+                _fetchCount = 0;
+                reportFailure(caught);
+            }
+        });
+    }
+
+    /**
+     * Positions a row for each loaded item in view. Rows already showing one of those item
+     * objects (compared by identity) are just moved into place. The other items are shown in rows
+     * that have gone out of view, and new rows are created only when there are none to reuse.
+     */
+    protected void layoutRows ()
+    {
+        int rows = getRowCount();
+        _rows.setHeight((rows * _rowHeight) + "px");
+
+        // note the rows we have, which will be hidden unless their items are still in view
+        Map<T, W> shown = Maps.newIdentityHashMap();
+        for (Map.Entry<W, T> entry : _shown.entrySet()) {
+            shown.put(entry.getValue(), entry.getKey());
+        }
+        Map<W, T> nowShown = Maps.newHashMap();
+
+        int first = Math.max(getFirstVisible(), _offset);
+        int last = Math.min(Math.min(getLastVisible(), rows), _offset + _items.size());
+        List<Integer> unshown = Lists.newArrayList();
+        for (int idx = first; idx < last; idx++) {
+            T item = _items.get(idx - _offset);
+            W row = shown.remove(item);
+            if (row == null) {
+                unshown.add(idx);
+            } else {
+                _rows.setWidgetPosition(row, 0, idx * _rowHeight);
+                nowShown.put(row, item);
+            }
+        }
+        for (W row : shown.values()) {
+            row.setVisible(false);
+            _free.add(row);
+        }
+        for (int idx : unshown) {
+            T item = _items.get(idx - _offset);
+            W row;
+            if (_free.isEmpty()) {
+                row = createRow();
+                _rows.add(row, 0, idx * _rowHeight);
+            } else {
+                row = _free.remove(_free.size()-1);
+                _rows.setWidgetPosition(row, 0, idx * _rowHeight);
+                row.setVisible(true);
+            }
+            updateRow(row, item);
+            nowShown.put(row, item);
+        }
+        _shown = nowShown;
+    }
+
+    /**
+     * Returns the number of rows the list spans. If the model doesn't know its count, this extends
+     * a block beyond the items we've loaded, so that there is somewhere to scroll to.
+     */
+    protected int getRowCount ()
+    {
+        int count = _loaded ? _model.getItemCount() : -1;
+        if (count >= 0) {
+            return count;
+        }
+        return (_end >= 0) ? _end : _offset + _items.size() + _blockSize;
+    }
+
+    /**
+     * Returns the index of the first row in view.
+     */
+    protected int getFirstVisible ()
+    {
+        return getVerticalScrollPosition() / _rowHeight;
+    }
+
+    /**
+     * Returns the index after the last row in view, not limited to the rows we have.
+     */
+    protected int getLastVisible ()
+    {
+        int last = (getVerticalScrollPosition() + getOffsetHeight() + _rowHeight - 1) / _rowHeight;
+        return Math.max(last, getFirstVisible() + 1);
+    }
+
+    /**
+     * Report a service failure.
+     */
+    protected void reportFailure (Throwable caught)
+    {
+        java.util.logging.Logger.getLogger("VirtualList").warning("Failure to fetch: " + caught);
+    }
+
+    /** Creates an empty row, which will be filled in by {@link #updateRow}. */
+    protected abstract W createRow ();
+
+    /** Configures a row, new or previously used, to display the supplied item. */
+    protected abstract void updateRow (W row, T item);
+
+    protected int _rowHeight, _blockSize;
+    protected AbsolutePanel _rows = new AbsolutePanel();
+
+    protected DataModel<T> _model;
+    protected int _offset;
+    protected List<T> _items = Collections.emptyList();
+    protected int _end = -1;
+    protected boolean _loaded, _stale;
+    protected int _fetchStart, _fetchCount, _fetchId;
+
+    protected Map<W, T> _shown = Maps.newHashMap();
+    protected List<W> _free = Lists.newArrayList();
+
+    protected HandlerRegistration _countBinding;
+    protected Value.Listener<Integer> _countListener = new Value.Listener<Integer>() {
+        public void valueChanged (Integer count) {
+            if (_loaded) {
+                layoutRows();
+            }
+        }
+    };
+}
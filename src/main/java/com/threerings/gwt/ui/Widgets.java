@@ -221,14 +221,15 @@ public class Widgets
      *
      * @param enabled an optional value that governs the enabled state of the target. When the
      * value becomes false, the target's click handler and "actionLabel" style will be removed,
-     * when it becomes true they will be reinstated.
+     * when it becomes true they will be reinstated. The target only listens to the value while it
+     * is attached to the DOM (see {@link Bindings}).
      */
     public static <T extends Widget & HasClickHandlers> T makeActionable (
         final T target, final ClickHandler onClick, Value<Boolean> enabled)
     {
         if (onClick != null) {
             if (enabled != null) {
-                enabled.addListenerAndTrigger(new Value.Listener<Boolean>() {
+                Bindings.bind(enabled, new Value.Listener<Boolean>() {
                     public void valueChanged (Boolean enabled) {
                         if (!enabled && _regi != null) {
                             _regi.removeHandler();
@@ -240,7 +241,7 @@ public class Widgets
                         }
                     }
                     protected HandlerRegistration _regi;
-                });
+                }, target);
             } else {
                 target.addClickHandler(onClick);
                 target.addStyleName("actionLabel");
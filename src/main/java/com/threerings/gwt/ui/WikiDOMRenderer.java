@@ -0,0 +1,170 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.gwt.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gwt.core.client.Duration;
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.dom.client.Element;
+
+import com.threerings.gwt.util.Console;
+import com.threerings.gwt.util.WikiParser;
+import com.threerings.gwt.util.WikiSink;
+
+/**
+ * Renders wiki documents straight into DOM elements (via {@link WikiDOMSink}), spreading the work
+ * over incremental slices scheduled with {@link Scheduler#scheduleIncremental} so that a long
+ * list of documents (the comments of a big thread, say) paints progressively instead of freezing
+ * the browser. Documents are rendered in the order they are added. For example:
+ *
+ * <pre>
+ * WikiDOMRenderer renderer = new WikiDOMRenderer(20);
+ * for (Comment comment : comments) {
+ *     SimplePanel body = new SimplePanel();
+ *     thread.add(body);
+ *     renderer.add(comment.text, body.getElement());
+ * }
+ * </pre>
+ */
+public class WikiDOMRenderer
+    implements Scheduler.RepeatingCommand
+{
+    /**
+     * Renders the supplied wiki text into the supplied element immediately.
+     */
+    public static void render (String wikiText, Element target)
+    {
+        WikiParser.parse(wikiText, new WikiDOMSink(target));
+    }
+
+    /**
+     * Creates a renderer that spends roughly {@code sliceMillis} milliseconds rendering in each
+     * slice before yielding to the browser. A document is never split across slices, so a single
+     * very large document may overrun the slice.
+     */
+    public WikiDOMRenderer (int sliceMillis)
+    {
+        _sliceMillis = sliceMillis;
+    }
+
+    /**
+     * Queues the supplied wiki text to be rendered into the supplied element, scheduling this
+     * renderer if it is not already scheduled.
+     */
+    public void add (String wikiText, Element target)
+    {
+        _texts.add(wikiText);
+        _targets.add(target);
+        if (!_scheduled) {
+            _scheduled = true;
+            Scheduler.get().scheduleIncremental(this);
+        }
+    }
+
+    /**
+     * Returns the number of documents that are waiting to be rendered.
+     */
+    public int getPendingCount ()
+    {
+        return _texts.size() - _next;
+    }
+
+    /**
+     * Drops all documents that have not yet been rendered.
+     */
+    public void cancel ()
+    {
+        _texts.clear();
+        _targets.clear();
+        _next = 0;
+    }
+
+    // from interface Scheduler.RepeatingCommand
+    public boolean execute ()
+    {
+        double start = Duration.currentTimeMillis();
+        while (_next < _texts.size()) {
+            Element target = _targets.get(_next);
+            String text = _texts.get(_next);
+            _texts.set(_next, null); // let the text be collected
+            _next++;
+            try {
+                WikiParser.parse(_parser, text, createSink(target));
+                onRendered(target);
+            } catch (RuntimeException re) {
+                // don't let one bad document stall the rest of the queue
+                onFailed(target, re);
+            }
+            if (Duration.currentTimeMillis() - start >= _sliceMillis) {
+                break;
+            }
+        }
+        if (_next < _texts.size()) {
+            return true;
+        }
+        cancel();
+        _scheduled = false;
+        onFinished();
+        return false;
+    }
+
+    /**
+     * Creates the sink used to render a document into the supplied element.
+     */
+    protected WikiSink createSink (Element target)
+    {
+        return new WikiDOMSink(target);
+    }
+
+    /**
+     * Called after a document has been rendered into the supplied element.
+     */
+    protected void onRendered (Element target)
+    {
+    }
+
+    /**
+     * Called if rendering a document into the supplied element fails. The element may contain
+     * whatever was rendered before the failure. The default implementation logs the failure.
+     */
+    protected void onFailed (Element target, RuntimeException cause)
+    {
+        Console.log("Failed to render wiki document", cause);
+    }
+
+    /**
+     * Called when all queued documents have been rendered.
+     */
+    protected void onFinished ()
+    {
+    }
+
+    protected int _sliceMillis;
+    protected WikiParser _parser = new WikiParser();
+    protected List<String> _texts = new ArrayList<String>();
+    protected List<Element> _targets = new ArrayList<Element>();
+    protected int _next;
+    protected boolean _scheduled;
+}
@@ -0,0 +1,398 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.gwt.ui;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gwt.dom.client.AnchorElement;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.ImageElement;
+import com.google.gwt.dom.client.ParagraphElement;
+import com.google.gwt.dom.client.Style;
+import com.google.gwt.dom.client.TableCellElement;
+
+import com.threerings.gwt.util.WikiParser;
+import com.threerings.gwt.util.WikiSink;
+import com.threerings.gwt.util.WikiUtils;
+
+/**
+ * Builds DOM nodes directly from the events of {@link WikiParser}, which spares the browser from
+ * parsing the XHTML produced by {@link WikiParser#render} all over again. The structure matches
+ * that of the XHTML, except that heading anchor ids are derived from the heading's text rather
+ * than its markup (which only matters for headings containing markup characters) and no table of
+ * contents is generated. For example:
+ *
+ * <pre>WikiParser.parse(text, new WikiDOMSink(panel.getElement()));</pre>
+ */
+public class WikiDOMSink
+    implements WikiSink
+{
+    /**
+     * Creates a sink that appends the nodes it builds to the supplied element.
+     */
+    public WikiDOMSink (Element parent)
+    {
+        _stack.add(parent);
+    }
+
+    // from interface WikiSink
+    public void startParagraph ()
+    {
+        push(_doc.createPElement());
+    }
+
+    // from interface WikiSink
+    public void endParagraph ()
+    {
+        pop();
+    }
+
+    // from interface WikiSink
+    public void startHeading (int level)
+    {
+        push(_doc.createElement("h" + (level + _headingLevelShift)));
+    }
+
+    // from interface WikiSink
+    public void endHeading (int level)
+    {
+        Element heading = pop();
+        heading.setId(getHeadingId(level, heading.getInnerText()));
+    }
+
+    // from interface WikiSink
+    public void startList (ListType type)
+    {
+        switch (type) {
+        case BULLET: case DASH: push(_doc.createULElement()); break;
+        case NUMBERED: push(_doc.createOLElement()); break;
+        case QUOTE: push(_doc.createBlockQuoteElement()); break;
+        case INDENT: push(createDiv("indent")); break;
+        case CENTER: push(top()); break; // each item is a centered div
+        }
+        _lists.add(type);
+        _listStart = true;
+    }
+
+    // from interface WikiSink
+    public void endList (ListType type)
+    {
+        _lists.remove(_lists.size()-1);
+        pop();
+    }
+
+    // from interface WikiSink
+    public void startListItem ()
+    {
+        switch (_lists.get(_lists.size()-1)) {
+        case QUOTE: case INDENT: // items are just lines
+            if (!_listStart) {
+                top().appendChild(_doc.createTextNode("\n"));
+            }
+            push(top());
+            break;
+        case CENTER:
+            push(createDiv("center"));
+            break;
+        default:
+            push(_doc.createLIElement());
+            break;
+        }
+        _listStart = false;
+    }
+
+    // from interface WikiSink
+    public void endListItem ()
+    {
+        pop();
+    }
+
+    // from interface WikiSink
+    public void startTable (boolean blockCells)
+    {
+        Element table = _doc.createTableElement();
+        table.setAttribute("border", "1");
+        push(table);
+        push(_doc.createTBodyElement());
+    }
+
+    // from interface WikiSink
+    public void endTable ()
+    {
+        pop();
+        pop();
+    }
+
+    // from interface WikiSink
+    public void startTableRow ()
+    {
+        push(_doc.createTRElement());
+    }
+
+    // from interface WikiSink
+    public void endTableRow ()
+    {
+        pop();
+    }
+
+    // from interface WikiSink
+    public void startTableCell (boolean header, int colspan)
+    {
+        TableCellElement cell = header ? _doc.createTHElement() : _doc.createTDElement();
+        if (colspan > 1) {
+            cell.setColSpan(colspan);
+        }
+        push(cell);
+    }
+
+    // from interface WikiSink
+    public void endTableCell ()
+    {
+        pop();
+    }
+
+    // from interface WikiSink
+    public void startFloat (boolean left)
+    {
+        Element div = _doc.createDivElement();
+        if (left) {
+            div.getStyle().setFloat(Style.Float.LEFT);
+            div.getStyle().setMarginRight(5, Style.Unit.PX);
+        } else {
+            div.getStyle().setFloat(Style.Float.RIGHT);
+            div.getStyle().setMarginLeft(5, Style.Unit.PX);
+        }
+        push(div);
+    }
+
+    // from interface WikiSink
+    public void endFloat ()
+    {
+        pop();
+    }
+
+    // from interface WikiSink
+    public void horizontalRule ()
+    {
+        top().appendChild(_doc.createHRElement());
+    }
+
+    // from interface WikiSink
+    public void preformatted (String text)
+    {
+        Element pre = _doc.createPreElement();
+        pre.appendChild(_doc.createTextNode(text));
+        // like the XHTML, break the paragraph (a <pre> can't be a child of a <p>) and continue it
+        // after the <pre>
+        boolean inParagraph = top().getTagName().equalsIgnoreCase(ParagraphElement.TAG);
+        if (inParagraph) {
+            pop();
+        }
+        top().appendChild(pre);
+        if (inParagraph) {
+            push(_doc.createPElement());
+        }
+    }
+
+    // from interface WikiSink
+    public void startFormat (Format format)
+    {
+        switch (format) {
+        case STRONG: push(_doc.createElement("strong")); break;
+        case EMPHASIS: push(_doc.createElement("em")); break;
+        case UNDERLINE: push(createSpan("underline")); break;
+        case MONOSPACE: push(_doc.createElement("tt")); break;
+        case STRIKE: push(_doc.createElement("strike")); break;
+        }
+    }
+
+    // from interface WikiSink
+    public void endFormat (Format format)
+    {
+        pop();
+    }
+
+    // from interface WikiSink
+    public void text (String text)
+    {
+        appendText(WikiUtils.unescapeHTML(text));
+    }
+
+    // from interface WikiSink
+    public void nowiki (String text)
+    {
+        appendText(text);
+    }
+
+    // from interface WikiSink
+    public void code (String text)
+    {
+        Element code = _doc.createElement("code");
+        code.appendChild(_doc.createTextNode(text));
+        top().appendChild(code);
+    }
+
+    // from interface WikiSink
+    public void lineBreak ()
+    {
+        top().appendChild(_doc.createBRElement());
+    }
+
+    // from interface WikiSink
+    public void link (String uri, String text)
+    {
+        if (WikiUtils.isAbsoluteURI(uri)) {
+            appendExternalLink(uri, WikiUtils.unescapeHTML(text));
+        } else {
+            appendInternalLink(uri, WikiUtils.unescapeHTML(text));
+        }
+    }
+
+    // from interface WikiSink
+    public void image (String uri, String text)
+    {
+        if (WikiUtils.isAbsoluteURI(uri)) {
+            appendExternalImage(uri, WikiUtils.unescapeHTML(text));
+        } else {
+            appendInternalImage(uri, WikiUtils.unescapeHTML(text));
+        }
+    }
+
+    /**
+     * Sets the number of levels by which headings are shifted: with the default of one, {@code =}
+     * produces {@code h2}, {@code ==} produces {@code h3} and so on.
+     */
+    public WikiDOMSink setHeadingLevelShift (int shift)
+    {
+        _headingLevelShift = shift;
+        return this;
+    }
+
+    protected void appendExternalLink (String uri, String text)
+    {
+        AnchorElement link = _doc.createAnchorElement();
+        link.setHref(uri);
+        link.setRel("nofollow");
+        link.appendChild(_doc.createTextNode(text));
+        top().appendChild(link);
+    }
+
+    protected void appendInternalLink (String uri, String text)
+    {
+        AnchorElement link = _doc.createAnchorElement();
+        link.setHref("#");
+        link.setTitle("Internal link");
+        link.appendChild(_doc.createTextNode(text));
+        top().appendChild(link);
+    }
+
+    protected void appendExternalImage (String uri, String text)
+    {
+        ImageElement image = _doc.createImageElement();
+        image.setSrc(uri);
+        image.setAlt(text);
+        image.setTitle(text);
+        top().appendChild(image);
+    }
+
+    protected void appendInternalImage (String uri, String text)
+    {
+        appendText("<<<Internal image(?): " + uri + " " + text + ">>>");
+    }
+
+    /**
+     * Returns the anchor id for a heading with the supplied level and text. Ids are made unique
+     * within the document by appending a counter.
+     */
+    protected String getHeadingId (int level, String text)
+    {
+        StringBuilder buf = new StringBuilder("H").append(level).append('_');
+        WikiUtils.appendAnchorId(text, false, buf);
+        String base = buf.toString(), id = base;
+        if (!_headingIds.add(id)) {
+            Integer count = _headingCounts.get(base);
+            int ii = (count == null) ? 0 : count;
+            do {
+                id = base + "_" + (++ii);
+            } while (!_headingIds.add(id));
+            _headingCounts.put(base, ii);
+        }
+        return id;
+    }
+
+    protected void appendText (String text)
+    {
+        top().appendChild(_doc.createTextNode(text));
+    }
+
+    protected Element createDiv (String styleName)
+    {
+        Element div = _doc.createDivElement();
+        div.setClassName(styleName);
+        return div;
+    }
+
+    protected Element createSpan (String styleName)
+    {
+        Element span = _doc.createSpanElement();
+        span.setClassName(styleName);
+        return span;
+    }
+
+    /**
+     * Appends the supplied element to the current element and makes it the current element.
+     * Pushing the current element again is allowed, for events that create no element.
+     */
+    protected void push (Element elem)
+    {
+        Element top = top();
+        if (elem != top) {
+            top.appendChild(elem);
+        }
+        _stack.add(elem);
+    }
+
+    protected Element pop ()
+    {
+        return _stack.remove(_stack.size()-1);
+    }
+
+    protected Element top ()
+    {
+        return _stack.get(_stack.size()-1);
+    }
+
+    protected Document _doc = Document.get();
+    protected List<Element> _stack = new ArrayList<Element>();
+    protected List<ListType> _lists = new ArrayList<ListType>();
+    protected boolean _listStart;
+    protected Set<String> _headingIds = new HashSet<String>();
+    protected Map<String, Integer> _headingCounts = new HashMap<String, Integer>();
+    protected int _headingLevelShift = 1;
+}
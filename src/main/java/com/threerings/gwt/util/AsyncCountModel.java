@@ -0,0 +1,37 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.gwt.util;
+
+/**
+ * A {@link DataModel} that may learn its total count after it has delivered a page, because the
+ * count is fetched separately from the page (see {@link ServiceBackedDataModel#setDeferredCount}).
+ * Until then it reports an item count of -1.
+ */
+public interface AsyncCountModel<T> extends DataModel<T>
+{
+    /**
+     * Returns a value that is updated with the total count whenever the model learns it, so that
+     * a pager can update its navigation without fetching the page again. The value is -1 while the
+     * count is unknown.
+     */
+    Value<Integer> getCountValue ();
+}
@@ -0,0 +1,54 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.gwt.util;
+
+/**
+ * A {@link PagedRequest} that also carries the continuation token identifying the position of
+ * the first requested item, so that a service can use keyset (seek) pagination rather than an
+ * offset query, which gets slower the deeper into a large data set the page lies.
+ *
+ * @see CursorPagedResult
+ * @see CursorServiceDataModel
+ */
+public class CursorPagedRequest extends PagedRequest
+{
+    /** The continuation token for the position at {@link #offset}, as previously returned by the
+     * service in {@link CursorPagedResult#cursors}, or null if it is not known (such as when the
+     * user jumps to a page far ahead). Services must then fall back to using the offset. */
+    public String cursor;
+
+    /**
+     * Creates a new cursor paged request with the given values.
+     */
+    public CursorPagedRequest (int offset, int count, boolean needCount, String cursor)
+    {
+        super(offset, count, needCount);
+        this.cursor = cursor;
+    }
+
+    /**
+     * Creates an empty cursor paged request for deserialization.
+     */
+    public CursorPagedRequest ()
+    {
+    }
+}
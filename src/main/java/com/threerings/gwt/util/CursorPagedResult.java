@@ -0,0 +1,38 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.gwt.util;
+
+import java.util.List;
+
+/**
+ * A {@link PagedResult} for a {@link CursorPagedRequest}, which also carries the continuation
+ * tokens from which the following pages may be requested.
+ */
+public class CursorPagedResult<T> extends PagedResult<T>
+{
+    /** The continuation token for the position following each element of {@link #page}, in the
+     * same order. A service may supply only the last token (leaving the others null), but pagers
+     * that request an extra item to find out whether there are more need the token that follows
+     * the second to last item. May be null if the page is empty. If the total number of elements
+     * is not known, {@link #total} should be -1. */
+    public List<String> cursors;
+}
@@ -0,0 +1,135 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.gwt.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * A data model for services that page with continuation tokens (see {@link CursorPagedRequest})
+ * rather than offsets. The model remembers the tokens returned with each page, so that a request
+ * for a page following one already seen carries the token for its position. Pages for which no
+ * token is known, such as one the user jumps to directly, are requested by offset alone.
+ *
+ * <p>If the service reports a negative total (because counting would be as slow as the offset
+ * query it avoids), the model reports an item count of -1, and pagers request an extra item to
+ * find out whether there is a next page.</p>
+ */
+public abstract class CursorServiceDataModel<T, R extends CursorPagedResult<T>>
+    extends PagedServiceDataModel<T, R>
+{
+    @Override // from ServiceBackedDataModel
+    public void prependItem (T item)
+    {
+        super.prependItem(item);
+        // the tokens identify positions following items, all of which have moved along one
+        Map<Integer, String> cursors = new HashMap<Integer, String>();
+        for (Map.Entry<Integer, String> entry : _cursors.entrySet()) {
+            cursors.put(entry.getKey() + 1, entry.getValue());
+        }
+        _cursors = cursors;
+    }
+
+    @Override // from ServiceBackedDataModel
+    public void reset ()
+    {
+        super.reset();
+        _cursors.clear();
+        _countUnknown = false;
+    }
+
+    @Override // from ServiceBackedDataModel
+    public int getItemCount ()
+    {
+        return _countUnknown ? -1 : super.getItemCount();
+    }
+
+    @Override // from ServiceBackedDataModel
+    public void removeItem (T item)
+    {
+        super.removeItem(item);
+        _cursors.clear(); // we don't know which positions followed the item
+    }
+
+    @Override // from ServiceBackedDataModel
+    protected void callFetchService (PagedRequest request, final AsyncCallback<R> callback)
+    {
+        final CursorPagedRequest creq = new CursorPagedRequest(
+            request.offset, request.count, request.needCount && !_countUnknown,
+            getCursor(request.offset));
+        final int generation = _generation;
+        callFetchService(creq, new AsyncCallback<R>() {
+            public void onSuccess (R result) {
+                if (generation == _generation) {
+                    noteCursors(creq.offset, result);
+                    if (creq.needCount) {
+                        _countUnknown = (result.total < 0);
+                    }
+                }
+                callback.onSuccess(result);
+            }
+            public void onFailure (Throwable cause) {
+                callback.onFailure(cause);
+            }
+        });
+    }
+
+    /**
+     * Calls the service to obtain data. Implementations should make a service call using the
+     * callback provided, continuing from the request's cursor if it has one and from its offset
+     * otherwise. See {@link ServiceBackedDataModel#callFetchService(PagedRequest,AsyncCallback)}.
+     */
+    protected abstract void callFetchService (
+        CursorPagedRequest request, AsyncCallback<R> callback);
+
+    /**
+     * Returns the continuation token for the supplied position, or null if it is not known.
+     */
+    protected String getCursor (int offset)
+    {
+        return _cursors.get(offset);
+    }
+
+    /**
+     * Records the continuation tokens returned with the page at the supplied offset.
+     */
+    protected void noteCursors (int offset, R result)
+    {
+        if (result.cursors == null) {
+            return;
+        }
+        for (int ii = 0, ll = result.cursors.size(); ii < ll; ii++) {
+            String cursor = result.cursors.get(ii);
+            if (cursor != null) {
+                _cursors.put(offset + ii + 1, cursor);
+            }
+        }
+    }
+
+    /** The continuation tokens we've been given, by the position they identify. */
+    protected Map<Integer, String> _cursors = new HashMap<Integer, String>();
+
+    /** Set once the service reports that it does not know the total number of items. */
+    protected boolean _countUnknown;
+}
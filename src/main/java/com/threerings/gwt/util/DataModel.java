@@ -42,7 +42,9 @@ public interface DataModel<T>
 
     /**
      * Perform a paged data request for the given number of items at the given offset into the
-     * result set. The result is returned through the given callback.
+     * result set. The result is returned through the given callback. The returned list must not be
+     * modified, as it may be a view of the model's own items, which is only valid until the model
+     * next changes.
      */
     void doFetchRows (int start, int count, AsyncCallback<List<T>> callback);
 
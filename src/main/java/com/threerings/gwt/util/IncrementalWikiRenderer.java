@@ -0,0 +1,247 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.gwt.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders successive revisions of a wiki document, such as the contents of an editor with a live
+ * preview, re-parsing only the blocks affected by each edit. The output of every call to {@link
+ * #render} is identical to that of {@link WikiParser#render(WikiParser,String)} on the same text.
+ *
+ * <p> The document is split into chunks at block boundaries where no list or table is open. For
+ * each chunk the renderer remembers its output, its headings and how far into the text its
+ * parsing looked. When new text arrives, it is compared with the previous revision to find the
+ * edited range; the chunks before that range whose parsing never looked into it, and the chunks
+ * after it, are reused, and parsing resumes at the first affected chunk and stops as soon as it
+ * reaches the start of a reusable chunk. Heading anchor ids and the table of contents are
+ * regenerated for the whole document, as they depend on every heading that precedes them. </p>
+ *
+ * <p> A renderer holds per-document state and must not be shared between threads or documents.
+ * Parser subclasses that keep per-document state of their own may not be suitable. </p>
+ */
+public class IncrementalWikiRenderer
+{
+    /**
+     * Creates a renderer that uses a default {@link WikiParser}.
+     */
+    public IncrementalWikiRenderer ()
+    {
+        this(new WikiParser());
+    }
+
+    /**
+     * Creates a renderer that uses the supplied parser, which it will reset and reuse for every
+     * render.
+     */
+    public IncrementalWikiRenderer (WikiParser parser)
+    {
+        _parser = parser;
+    }
+
+    /**
+     * Renders the supplied revision of the document to XHTML.
+     */
+    public String render (String wikiText)
+    {
+        int length = (wikiText == null) ? 0 : wikiText.length();
+        if (_next.length < length) {
+            _next = new char[length];
+        }
+        int nlength = WikiUtils.preprocessWikiText(wikiText, _next);
+        if (_html != null && isUnchanged(nlength)) {
+            _parsedChunks = 0;
+            return _html;
+        }
+
+        // find the edited range: [prefix, _length-suffix) of the old text was replaced by
+        // [prefix, nlength-suffix) of the new
+        int max = Math.min(_length, nlength), prefix = 0, suffix = 0;
+        while (prefix < max && _text[prefix] == _next[prefix]) {
+            prefix++;
+        }
+        while (suffix < max - prefix && _text[_length-suffix-1] == _next[nlength-suffix-1]) {
+            suffix++;
+        }
+        int oldEditEnd = _length - suffix, delta = nlength - _length;
+
+        _parser.reset();
+        _parser.setText(_next, nlength);
+        List<Chunk> chunks = new ArrayList<Chunk>();
+
+        // reuse the leading chunks that were parsed without looking at the edited text
+        int oc = 0;
+        while (oc < _chunks.size() && _chunks.get(oc).scanLimit <= prefix) {
+            Chunk chunk = _chunks.get(oc++);
+            updateAnchorIds(chunk);
+            chunks.add(chunk);
+        }
+
+        // re-parse from there until we reach the start of a chunk that follows the edit
+        int pos = (oc < _chunks.size()) ? _chunks.get(oc).start : 0;
+        _parsedChunks = 0;
+        while (true) {
+            _parser.sb.setLength(0);
+            _parser.headings = new ArrayList<WikiParser.Heading>();
+            int end = _parser.parseChunk(pos);
+            chunks.add(new Chunk(pos, _parser.scanLimit, _parser.sb.toString(), _parser.headings));
+            _parsedChunks++;
+            if (end < 0) {
+                break;
+            }
+            pos = end;
+
+            while (oc < _chunks.size() && (_chunks.get(oc).start < oldEditEnd ||
+                                           _chunks.get(oc).start + delta < pos)) {
+                oc++;
+            }
+            if (oc < _chunks.size() && _chunks.get(oc).start + delta == pos) {
+                for (; oc < _chunks.size(); oc++) {
+                    Chunk chunk = _chunks.get(oc);
+                    chunk.start += delta;
+                    chunk.scanLimit += delta;
+                    updateAnchorIds(chunk);
+                    chunks.add(chunk);
+                }
+                break;
+            }
+        }
+        _parser.headings = null;
+
+        // assemble the document and its table of contents
+        StringBuilder sb = _parser.sb;
+        sb.setLength(0);
+        _parser.toc.setLength(0);
+        _parser.tocLevel = 0;
+        for (Chunk chunk : chunks) {
+            for (WikiParser.Heading heading : chunk.headings) {
+                _parser.appendTOCItem(heading.level, heading.anchorId, heading.text);
+            }
+            sb.append(chunk.html);
+        }
+        _parser.completeTOC();
+        _html = sb.toString();
+        sb.setLength(0);
+
+        char[] text = _text;
+        _text = _next;
+        _next = text;
+        _length = nlength;
+        _chunks = chunks;
+        return _html;
+    }
+
+    /**
+     * Returns the number of chunks into which the most recently rendered document was split.
+     */
+    public int getChunkCount ()
+    {
+        return _chunks.size();
+    }
+
+    /**
+     * Returns the number of chunks that were parsed by the most recent call to {@link #render},
+     * the rest having been reused.
+     */
+    public int getParsedChunkCount ()
+    {
+        return _parsedChunks;
+    }
+
+    /**
+     * Forgets the previously rendered document, so that the next call to {@link #render} parses
+     * its text in full.
+     */
+    public void clear ()
+    {
+        _chunks = new ArrayList<Chunk>();
+        _length = 0;
+        _html = null;
+    }
+
+    protected boolean isUnchanged (int nlength)
+    {
+        if (nlength != _length) {
+            return false;
+        }
+        for (int ii = 0; ii < nlength; ii++) {
+            if (_text[ii] != _next[ii]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Generates anchor ids for the headings of a reused chunk, which seeds the parser's record of
+     * used ids just as parsing the chunk would have. If an id differs from the one previously
+     * generated, because a heading earlier in the document was added or removed, the chunk's
+     * output is patched.
+     */
+    protected void updateAnchorIds (Chunk chunk)
+    {
+        int shift = 0;
+        for (WikiParser.Heading heading : chunk.headings) {
+            heading.offset += shift;
+            String anchorId = _parser.generateTOCAnchorId(heading.level, heading.text);
+            if (!anchorId.equals(heading.anchorId)) {
+                chunk.html = chunk.html.substring(0, heading.offset) + anchorId +
+                    chunk.html.substring(heading.offset + heading.anchorId.length());
+                shift += anchorId.length() - heading.anchorId.length();
+                heading.anchorId = anchorId;
+            }
+        }
+    }
+
+    /** A run of blocks that is parsed starting from, and ending in, a quiescent parser. */
+    protected static class Chunk
+    {
+        /** The position in the preprocessed text at which this chunk starts. */
+        public int start;
+
+        /** The position up to which the text was examined while parsing this chunk. */
+        public int scanLimit;
+
+        /** The XHTML rendered for this chunk. */
+        public String html;
+
+        /** The headings in this chunk, in order. */
+        public List<WikiParser.Heading> headings;
+
+        public Chunk (int start, int scanLimit, String html, List<WikiParser.Heading> headings)
+        {
+            this.start = start;
+            this.scanLimit = scanLimit;
+            this.html = html;
+            this.headings = headings;
+        }
+    }
+
+    protected WikiParser _parser;
+    protected List<Chunk> _chunks = new ArrayList<Chunk>();
+    protected char[] _text = new char[0], _next = new char[0];
+    protected int _length;
+    protected String _html;
+    protected int _parsedChunks;
+}
@@ -0,0 +1,415 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.gwt.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * A {@link SimpleDataModel} whose items are identified by a key, which is indexed so that items
+ * can be found, updated and removed without scanning the list. The model can also provide live
+ * {@link View}s of its items, filtered and optionally sorted, which are updated as items are
+ * added, updated and removed rather than being rebuilt.
+ *
+ * <p>Each item must have a distinct key, and the list of items must only be changed through the
+ * model.</p>
+ */
+public class IndexedDataModel<K, T> extends SimpleDataModel<T>
+{
+    /**
+     * A filtered and optionally sorted view of the items in an {@link IndexedDataModel}. Unsorted
+     * views keep the items in the order of the underlying model.
+     */
+    public class View implements DataModel<T>
+    {
+        /**
+         * Configures the predicate that items must match to be in this view, or null to include
+         * all items. The items in the model are scanned again.
+         */
+        public void setFilter (Predicate<? super T> filter)
+        {
+            _filter = filter;
+            refilter();
+        }
+
+        /**
+         * Narrows this view to items that match both its current filter and the supplied
+         * predicate. Only the items already in the view are checked, so this is much cheaper than
+         * {@link #setFilter} when, say, the user types another character into a search field.
+         */
+        public void refineFilter (final Predicate<? super T> pred)
+        {
+            final Predicate<? super T> filter = _filter;
+            if (filter == null) {
+                _filter = pred;
+            } else {
+                _filter = new Predicate<T>() {
+                    public boolean apply (T item) {
+                        return filter.apply(item) && pred.apply(item);
+                    }
+                };
+            }
+            int kept = 0;
+            for (int ii = 0, ll = _viewItems.size(); ii < ll; ii++) {
+                T item = _viewItems.get(ii);
+                if (pred.apply(item)) {
+                    _viewItems.set(kept++, item);
+                } else {
+                    _keys.remove(getKey(item));
+                }
+            }
+            _viewItems.subList(kept, _viewItems.size()).clear();
+        }
+
+        /**
+         * Configures the order of the items in this view, or null to keep them in the order of
+         * the underlying model.
+         */
+        public void setComparator (Comparator<? super T> comp)
+        {
+            _comp = comp;
+            if (comp == null) {
+                refilter();
+            } else {
+                Collections.sort(_viewItems, comp);
+            }
+        }
+
+        /**
+         * Stops this view from tracking changes to the underlying model.
+         */
+        public void dispose ()
+        {
+            _views.remove(this);
+        }
+
+        // from DataModel
+        public int getItemCount ()
+        {
+            return _viewItems.size();
+        }
+
+        // from DataModel
+        public void doFetchRows (int start, int count, AsyncCallback<List<T>> callback)
+        {
+            callback.onSuccess(page(_viewItems, start, count));
+        }
+
+        // from DataModel
+        public void removeItem (T item)
+        {
+            IndexedDataModel.this.removeItem(item);
+        }
+
+        protected View (Predicate<? super T> filter, Comparator<? super T> comp)
+        {
+            _filter = filter;
+            _comp = comp;
+            refilter();
+        }
+
+        protected void refilter ()
+        {
+            _viewItems.clear();
+            _keys.clear();
+            if (_items == null) {
+                return;
+            }
+            for (T item : _items) {
+                if (matches(item)) {
+                    _viewItems.add(item);
+                    _keys.add(getKey(item));
+                }
+            }
+            if (_comp != null) {
+                Collections.sort(_viewItems, _comp);
+            }
+        }
+
+        protected void itemAdded (T item)
+        {
+            if (matches(item)) {
+                insert(item);
+            }
+        }
+
+        protected void itemUpdated (T oitem, T item)
+        {
+            int idx = find(oitem);
+            if (idx >= 0 && matches(item) && inOrder(idx, item)) {
+                _viewItems.set(idx, item);
+                return;
+            }
+            if (idx >= 0) {
+                _viewItems.remove(idx);
+                _keys.remove(getKey(oitem));
+            }
+            if (matches(item)) {
+                insert(item);
+            }
+        }
+
+        protected void itemRemoved (T item)
+        {
+            int idx = find(item);
+            if (idx >= 0) {
+                _viewItems.remove(idx);
+                _keys.remove(getKey(item));
+            }
+        }
+
+        protected boolean matches (T item)
+        {
+            return (_filter == null) || _filter.apply(item);
+        }
+
+        /**
+         * Returns true if the supplied item could replace the item at the specified position
+         * without breaking the order of the view.
+         */
+        protected boolean inOrder (int idx, T item)
+        {
+            if (_comp == null) {
+                return true; // updated items keep their place in the model
+            }
+            return (idx == 0 || _comp.compare(_viewItems.get(idx-1), item) <= 0) &&
+                (idx == _viewItems.size()-1 || _comp.compare(item, _viewItems.get(idx+1)) <= 0);
+        }
+
+        protected void insert (T item)
+        {
+            _viewItems.add(search(item, true), item);
+            _keys.add(getKey(item));
+        }
+
+        /**
+         * Returns the position in the view of the item with the same key as the supplied item, or
+         * -1 if it is not in the view.
+         */
+        protected int find (T item)
+        {
+            K key = getKey(item);
+            if (!_keys.contains(key)) {
+                return -1;
+            }
+            for (int idx = search(item, false), ll = _viewItems.size(); idx < ll; idx++) {
+                T vitem = _viewItems.get(idx);
+                if (key.equals(getKey(vitem))) {
+                    return idx;
+                }
+                if (compare(vitem, item) != 0) {
+                    break;
+                }
+            }
+            // the item must have been changed without being updated through the model
+            for (int idx = 0, ll = _viewItems.size(); idx < ll; idx++) {
+                if (key.equals(getKey(_viewItems.get(idx)))) {
+                    return idx;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the position of the first item in the view that is not before the supplied
+         * item or, if after is true, the first that is after it.
+         */
+        protected int search (T item, boolean after)
+        {
+            int low = 0, high = _viewItems.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(_viewItems.get(mid), item);
+                if (cmp < 0 || (after && cmp == 0)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Compares items by our comparator or, if we have none, by their position in the model.
+         */
+        protected int compare (T a, T b)
+        {
+            if (_comp != null) {
+                return _comp.compare(a, b);
+            }
+            int aidx = indexOfKey(getKey(a)), bidx = indexOfKey(getKey(b));
+            return (aidx < bidx) ? -1 : ((aidx == bidx) ? 0 : 1);
+        }
+
+        protected Predicate<? super T> _filter;
+        protected Comparator<? super T> _comp;
+        protected List<T> _viewItems = new ArrayList<T>();
+        protected Set<K> _keys = new HashSet<K>();
+    }
+
+    /**
+     * Creates a new indexed data model with the supplied list of items and key function.
+     */
+    public static <K, T> IndexedDataModel<K, T> newModel (List<T> items, Function<T, K> keyFn)
+    {
+        return new IndexedDataModel<K, T>(items, keyFn);
+    }
+
+    /**
+     * Construct a new {@link IndexedDataModel} instance with the given items, whose keys are
+     * obtained with the supplied function.
+     */
+    public IndexedDataModel (List<T> items, Function<T, K> keyFn)
+    {
+        super(items);
+        _keyFn = keyFn;
+    }
+
+    /**
+     * Returns the item with the specified key, or null if there is no such item in the model.
+     */
+    public T getItem (K key)
+    {
+        int idx = indexOfKey(key);
+        return (idx < 0) ? null : _items.get(idx);
+    }
+
+    /**
+     * Returns the position of the item with the specified key, or -1 if there is no such item in
+     * the model.
+     */
+    public int indexOfKey (K key)
+    {
+        if (_items == null) {
+            return -1;
+        }
+        Integer idx = _index.get(key);
+        if (idx == null || idx >= _indexed) {
+            // the item may have moved (or been added) since we last indexed
+            for (int ii = _indexed, ll = _items.size(); ii < ll; ii++) {
+                _index.put(getKey(_items.get(ii)), ii);
+            }
+            _indexed = _items.size();
+            idx = _index.get(key);
+        }
+        return (idx == null) ? -1 : idx;
+    }
+
+    /**
+     * Creates a view of the items in this model that match the supplied filter, sorted by the
+     * supplied comparator. Either may be null, to include all items or keep them in the order of
+     * this model. The view is updated as this model changes, until it is disposed.
+     */
+    public View createView (Predicate<? super T> filter, Comparator<? super T> comp)
+    {
+        View view = new View(filter, comp);
+        _views.add(view);
+        return view;
+    }
+
+    @Override // from SimpleDataModel
+    public void addItem (int index, T item)
+    {
+        if (_items == null) {
+            return;
+        }
+        _items.add(index, item);
+        if (index == _indexed) {
+            _index.put(getKey(item), index);
+            _indexed++;
+        } else {
+            _indexed = Math.min(_indexed, index);
+        }
+        for (View view : _views) {
+            view.itemAdded(item);
+        }
+    }
+
+    /**
+     * Updates the item with the same key as the specified item if found in the model, prepends
+     * it otherwise.
+     */
+    @Override // from SimpleDataModel
+    public void updateItem (T item)
+    {
+        if (_items == null) {
+            return;
+        }
+        int idx = indexOfKey(getKey(item));
+        if (idx == -1) {
+            addItem(0, item);
+            return;
+        }
+        T oitem = _items.set(idx, item);
+        for (View view : _views) {
+            view.itemUpdated(oitem, item);
+        }
+    }
+
+    /**
+     * Removes the item with the same key as the specified item, if found in the model.
+     */
+    @Override // from SimpleDataModel
+    public void removeItem (T item)
+    {
+        K key = getKey(item);
+        int idx = indexOfKey(key);
+        if (idx == -1) {
+            return;
+        }
+        // views find unsorted items by their position in the model, so notify them first
+        for (View view : _views) {
+            view.itemRemoved(_items.get(idx));
+        }
+        _items.remove(idx);
+        _index.remove(key);
+        _indexed = Math.min(_indexed, idx);
+    }
+
+    protected K getKey (T item)
+    {
+        return _keyFn.apply(item);
+    }
+
+    /** Obtains the key of an item. */
+    protected Function<T, K> _keyFn;
+
+    /** The position of each item by its key, which is valid for positions below
+     * {@link #_indexed}. */
+    protected Map<K, Integer> _index = new HashMap<K, Integer>();
+
+    /** The number of items at the start of the list whose positions are in the index. */
+    protected int _indexed;
+
+    /** The views we keep up to date. */
+    protected List<View> _views = new ArrayList<View>();
+}
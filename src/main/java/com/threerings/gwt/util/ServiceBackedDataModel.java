@@ -21,6 +21,7 @@
 
 package com.threerings.gwt.util;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -31,9 +32,50 @@ import com.google.gwt.user.client.rpc.AsyncCallback;
  * method to fetch a range of items.  Type T is from DataModel, and must be the type that is
  * return in a list from DataModel.doFetchRows.  Type R is for the AsyncCallback, and can be
  * anything - it is passed into getCount() and getRows() from the service call.
+ *
+ * <p>The model caches the most recently displayed pages (see {@link #setCachedPages}), so that
+ * paging back and forth does not call the service every time, and can prefetch the pages either
+ * side of the displayed page (see {@link #setPrefetch}).</p>
+ *
+ * <p>Where counting the items costs much more than fetching a page, the model can fetch the count
+ * with a separate service call, in parallel with the first page (see {@link #setDeferredCount}).
+ * </p>
  */
-public abstract class ServiceBackedDataModel<T, R> implements DataModel<T>
+public abstract class ServiceBackedDataModel<T, R> implements AsyncCountModel<T>
 {
+    /** The number of pages cached by default. */
+    public static final int DEFAULT_CACHED_PAGES = 5;
+
+    /**
+     * Configures the number of pages this model keeps, including the page being displayed. The
+     * least recently displayed pages are discarded first.
+     */
+    public void setCachedPages (int pages)
+    {
+        _cachedPages = Math.max(pages, 1);
+        prunePages();
+    }
+
+    /**
+     * Configures whether this model fetches the next and previous pages in the background once a
+     * page is displayed, so that they are cached by the time they are requested.
+     */
+    public void setPrefetch (boolean prefetch)
+    {
+        _prefetch = prefetch;
+    }
+
+    /**
+     * Configures whether this model requests its pages without a count, and fetches the count with
+     * {@link #callCountService} instead. The item count is -1 until the count arrives, so pagers
+     * offer a next page for as long as there are more items, and then update their navigation when
+     * notified via {@link #getCountValue}.
+     */
+    public void setDeferredCount (boolean deferred)
+    {
+        _deferCount = deferred;
+    }
+
     /**
      * Prepends an item to an already loaded model. The model must have at least been asked to
      * display its first page (and hence have it's total count).
@@ -44,7 +86,10 @@ public abstract class ServiceBackedDataModel<T, R> implements DataModel<T>
         if (_pageOffset == 0) {
             _pageItems.add(0, item);
         }
-        _count++;
+        if (_count >= 0) {
+            _countValue.update(++_count);
+        }
+        discardPages(false);
     }
 
     /**
@@ -58,7 +103,10 @@ public abstract class ServiceBackedDataModel<T, R> implements DataModel<T>
         if (_pageItems.size() < _pageCount) {
             _pageItems.add(item);
         }
-        _count++;
+        if (_count >= 0) {
+            _countValue.update(++_count);
+        }
+        discardPages(false);
     }
 
     /**
@@ -70,11 +118,24 @@ public abstract class ServiceBackedDataModel<T, R> implements DataModel<T>
         _pageOffset = 0;
         _pageCount = -1;
         _pageItems = Collections.emptyList();
+        discardPages(true);
+        _latest = null; // don't deliver a page fetched before the reset
+        _countCallback = null;
+        _countValue.updateIf(-1);
+    }
+
+    @Override // from interface AsyncCountModel
+    public Value<Integer> getCountValue ()
+    {
+        return _countValue;
     }
 
     @Override // from interface DataModel
     public int getItemCount ()
     {
+        if (_count < 0 && _deferCount) {
+            return -1;
+        }
         return Math.max(_count, _pageOffset + _pageItems.size());
     }
 
@@ -82,42 +143,271 @@ public abstract class ServiceBackedDataModel<T, R> implements DataModel<T>
     public void removeItem (T item)
     {
         _pageItems.remove(item);
-        _count--;
+        if (_count >= 0) {
+            _countValue.update(--_count);
+        }
+        discardPages(false);
     }
 
     @Override // from interface DataModel
     public void doFetchRows (int start, int count, final AsyncCallback<List<T>> callback)
     {
-        // if we have data, and are requesting the same data we have...
-        if ((_count >= 0) && (_pageOffset == start) && (_pageCount == count) &&
+        // if we have data, and have the page being requested...
+        CachedPage<T, R> page = (_count >= 0) ? getCachedPage(start, count) : null;
+        if (page != null && page.items == null) {
+            // a prefetched page is turned into rows only when it is displayed
+            setCurrentResult(page.result);
+            page.items = getRows(page.result);
+        } else if (page != null && page.items != _pageItems) {
+            setCurrentResult(page.result);
+        }
+        if (page != null &&
                 // and we're either on the last page
-                (((start + _pageCount > _count) && !_pageItems.isEmpty()) ||
+                (((start + count > _count) && !page.items.isEmpty()) ||
                 // or have enough items for the page requested..
-                (_pageItems.size() == count))) {
+                (page.items.size() == count))) {
+            _pageOffset = start;
+            _pageCount = count;
+            _pageItems = page.items;
+            _latest = null; // any page still being fetched has been superseded
             callback.onSuccess(_pageItems);
+            prefetchAround(start, count);
 
         } else {
-            callFetchService(new PagedRequest(_pageOffset = start, _pageCount = count, _count < 0),
-                    new AsyncCallback<R>() {
-                public void onSuccess (R result) {
-                    ServiceBackedDataModel.this.onSuccess(result, callback);
-                }
-                public void onFailure (Throwable cause) {
-                    callback.onFailure(cause);
-                    ServiceBackedDataModel.this.reportFailure(cause);
+            _pageOffset = start;
+            _pageCount = count;
+            // share the service call if this page is already being fetched
+            Fetch<T> fetch = getFetch(start, count);
+            if (fetch != null) {
+                fetch.callbacks.add(callback);
+                _latest = fetch;
+            } else {
+                boolean needCount = (_count < 0);
+                startFetch(new PagedRequest(start, count, needCount && !_deferCount), callback);
+                if (needCount && _deferCount) {
+                    fetchCount();
                 }
-            });
+            }
         }
     }
 
     protected void onSuccess (R result, AsyncCallback<List<T>> callback)
     {
         setCurrentResult(result);
-        if (_count < 0) {
+        if (_count < 0 && !_deferCount) {
             _count = getCount(result);
+            _countValue.updateIf(_count);
         }
         _pageItems = getRows(result);
+        cachePage(_pageOffset, _pageCount, result, _pageItems);
         callback.onSuccess(_pageItems);
+        prefetchAround(_pageOffset, _pageCount);
+    }
+
+    /**
+     * Returns the fetch in progress for the supplied offset and count that was started since the
+     * cache was last discarded, or null.
+     */
+    protected Fetch<T> getFetch (int start, int count)
+    {
+        for (Fetch<T> fetch : _fetches) {
+            if (fetch.request.offset == start && fetch.request.count == count &&
+                    fetch.generation == _generation) {
+                return fetch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Calls the service to fetch the supplied page, for display via the supplied callback or, if
+     * it is null, in the background. Only the result of the fetch for the most recently requested
+     * page is displayed (see {@link #onFetched}), which keeps a slow response from replacing the
+     * page the user has since moved on to.
+     */
+    protected void startFetch (PagedRequest request, AsyncCallback<List<T>> callback)
+    {
+        final Fetch<T> fetch = new Fetch<T>(request, _generation);
+        if (callback != null) {
+            fetch.callbacks.add(callback);
+            _latest = fetch;
+        }
+        _fetches.add(fetch);
+        callFetchService(request, new AsyncCallback<R>() {
+            public void onSuccess (R result) {
+                _fetches.remove(fetch);
+                onFetched(fetch, result);
+            }
+            public void onFailure (Throwable cause) {
+                _fetches.remove(fetch);
+                onFetchFailed(fetch, cause);
+            }
+        });
+    }
+
+    /**
+     * Called when a fetch completes. If it is for the most recently requested page, the page is
+     * displayed. Otherwise (the fetch was superseded or is a prefetch) it is just cached.
+     */
+    protected void onFetched (Fetch<T> fetch, R result)
+    {
+        if (fetch == _latest) {
+            _latest = null;
+            final List<AsyncCallback<List<T>>> callbacks = fetch.callbacks;
+            onSuccess(result, (callbacks.size() == 1) ? callbacks.get(0) :
+                      new AsyncCallback<List<T>>() {
+                public void onSuccess (List<T> items) {
+                    for (AsyncCallback<List<T>> callback : callbacks) {
+                        callback.onSuccess(items);
+                    }
+                }
+                public void onFailure (Throwable cause) {
+                    for (AsyncCallback<List<T>> callback : callbacks) {
+                        callback.onFailure(cause);
+                    }
+                }
+            });
+
+        } else if (fetch.generation == _generation) {
+            // we don't disturb the use of the current result by converting it to rows
+            cachePage(fetch.request.offset, fetch.request.count, result, null);
+        }
+    }
+
+    /**
+     * Called when a fetch fails. The failure is reported only if the fetch is for the most
+     * recently requested page.
+     */
+    protected void onFetchFailed (Fetch<T> fetch, Throwable cause)
+    {
+        if (fetch == _latest) {
+            _latest = null;
+            for (AsyncCallback<List<T>> callback : fetch.callbacks) {
+                callback.onFailure(cause);
+            }
+            reportFailure(cause);
+        }
+    }
+
+    /**
+     * Calls the count service, unless a call is already in progress. A count that arrives after
+     * the model is reset is ignored, and a failure (or a null count) is ignored until the next
+     * page is fetched (which will try again); in the meantime the model simply has no count.
+     */
+    protected void fetchCount ()
+    {
+        if (_countCallback != null) {
+            return;
+        }
+        _countCallback = new AsyncCallback<Integer>() {
+            public void onSuccess (Integer count) {
+                if (_countCallback == this) {
+                    _countCallback = null;
+                    if (count != null) {
+                        _count = count;
+                        _countValue.update(count);
+                    }
+                }
+            }
+            public void onFailure (Throwable cause) {
+                if (_countCallback == this) {
+                    _countCallback = null;
+                }
+            }
+        };
+        callCountService(_countCallback);
+    }
+
+    /**
+     * Returns the cached page with the supplied offset and count, marking it as most recently
+     * used, or null.
+     */
+    protected CachedPage<T, R> getCachedPage (int start, int count)
+    {
+        for (int ii = 0, ll = _pages.size(); ii < ll; ii++) {
+            CachedPage<T, R> page = _pages.get(ii);
+            if (page.offset == start && page.count == count) {
+                _pages.add(_pages.remove(ii));
+                return page;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a page to the cache (replacing any with the same offset and count) as the most recently
+     * used page. The items may be null for a page that has not yet been displayed.
+     */
+    protected void cachePage (int start, int count, R result, List<T> items)
+    {
+        if (getCachedPage(start, count) != null) {
+            _pages.remove(_pages.size()-1);
+        }
+        _pages.add(new CachedPage<T, R>(start, count, result, items));
+        prunePages();
+    }
+
+    /**
+     * Discards the least recently used pages, other than the one being displayed, until we are
+     * within our limit.
+     */
+    protected void prunePages ()
+    {
+        for (int ii = 0; _pages.size() > _cachedPages && ii < _pages.size(); ) {
+            if (_pages.get(ii).items == _pageItems) {
+                ii++;
+            } else {
+                _pages.remove(ii);
+            }
+        }
+    }
+
+    /**
+     * Discards the cached pages, which no longer reflect the model. Pages being fetched in the
+     * background will not be cached, nor will new requests share their fetches.
+     *
+     * @param all if false, the page being displayed (which has been updated) is kept.
+     */
+    protected void discardPages (boolean all)
+    {
+        for (int ii = _pages.size()-1; ii >= 0; ii--) {
+            if (all || _pages.get(ii).items != _pageItems) {
+                _pages.remove(ii);
+            }
+        }
+        _generation++;
+    }
+
+    /**
+     * Prefetches the pages either side of the supplied page, if prefetching is enabled.
+     */
+    protected void prefetchAround (int start, int count)
+    {
+        if (!_prefetch || _count < 0) {
+            return;
+        }
+        if (start + count < _count) {
+            prefetch(start + count, count);
+        }
+        if (start >= count) {
+            prefetch(start - count, count);
+        }
+    }
+
+    /**
+     * Fetches the specified page in the background and caches it, unless it is already cached
+     * or being fetched. Failures are ignored; the page will be fetched again when it is requested.
+     */
+    protected void prefetch (int start, int count)
+    {
+        for (CachedPage<T, R> page : _pages) {
+            if (page.offset == start && page.count == count) {
+                return;
+            }
+        }
+        if (getFetch(start, count) == null) {
+            startFetch(new PagedRequest(start, count, false), null);
+        }
     }
 
     /**
@@ -156,6 +446,16 @@ public abstract class ServiceBackedDataModel<T, R> implements DataModel<T>
         callFetchService(request.offset, request.count, request.needCount, callback);
     }
 
+    /**
+     * Calls the service to obtain the total number of items, when the count is deferred (see
+     * {@link #setDeferredCount}). This may be an estimate, if an exact count is too costly. By
+     * default this implementation will throw an exception.
+     */
+    protected void callCountService (AsyncCallback<Integer> callback)
+    {
+        throw new UnsupportedOperationException();
+    }
+
     /**
      * Returns the count from the service result.
      */
@@ -173,9 +473,19 @@ public abstract class ServiceBackedDataModel<T, R> implements DataModel<T>
      */
     protected abstract void reportFailure (Throwable caught);
 
-    /** The count of items in our model, filled in by the first call to {@link #doFetchRows}. */
+    /** The count of items in our model, filled in by the first call to {@link #doFetchRows} (or
+     * by the count service, if the count is deferred). */
     protected int _count = -1;
 
+    /** Whether we fetch the count separately from the pages. */
+    protected boolean _deferCount;
+
+    /** The callback for the count service call in progress, if any. */
+    protected AsyncCallback<Integer> _countCallback;
+
+    /** Reports our count to pagers as it becomes known. */
+    protected Value<Integer> _countValue = Value.create(-1);
+
     /** The offset of the page we're currently displaying. */
     protected int _pageOffset;
 
@@ -184,4 +494,61 @@ public abstract class ServiceBackedDataModel<T, R> implements DataModel<T>
 
     /** The items we got back for the page we're currently displaying. */
     protected List<T> _pageItems = Collections.emptyList();
+
+    /** The number of pages we cache. */
+    protected int _cachedPages = DEFAULT_CACHED_PAGES;
+
+    /** Whether we prefetch the pages either side of the displayed page. */
+    protected boolean _prefetch;
+
+    /** Our cached pages, in access order (least recently used first). */
+    protected List<CachedPage<T, R>> _pages = new ArrayList<CachedPage<T, R>>();
+
+    /** The service calls in progress. */
+    protected List<Fetch<T>> _fetches = new ArrayList<Fetch<T>>();
+
+    /** The fetch for the most recently requested page, if that page is still being fetched. */
+    protected Fetch<T> _latest;
+
+    /** Incremented whenever the cache is discarded, so that fetches in progress aren't cached. */
+    protected int _generation;
+
+    /** A service call in progress and the callbacks waiting on it. */
+    protected static class Fetch<T>
+    {
+        /** The request passed to the service. */
+        public final PagedRequest request;
+
+        /** The value of {@link ServiceBackedDataModel#_generation} when the fetch started. */
+        public final int generation;
+
+        /** The callbacks of the requests for this page, empty for a prefetch. */
+        public final List<AsyncCallback<List<T>>> callbacks =
+            new ArrayList<AsyncCallback<List<T>>>();
+
+        public Fetch (PagedRequest request, int generation) {
+            this.request = request;
+            this.generation = generation;
+        }
+    }
+
+    /** A page of results held in our cache. */
+    protected static class CachedPage<T, R>
+    {
+        /** The offset and count with which the page was requested. */
+        public final int offset, count;
+
+        /** The service result from which the page came. */
+        public final R result;
+
+        /** The page's items, or null if it was prefetched and has not yet been displayed. */
+        public List<T> items;
+
+        public CachedPage (int offset, int count, R result, List<T> items) {
+            this.offset = offset;
+            this.count = count;
+            this.result = result;
+            this.items = items;
+        }
+    }
 }
@@ -22,6 +22,7 @@
 package com.threerings.gwt.util;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import com.google.common.base.Predicate;
@@ -120,12 +121,7 @@ public class SimpleDataModel<T>
     // from DataModel
     public void doFetchRows (int start, int count, AsyncCallback<List<T>> callback)
     {
-        List<T> subList = new ArrayList<T>();
-        int limit = Math.min(count, _items.size()-start);
-        for (int ii = 0; ii < limit; ii ++) {
-            subList.add(_items.get(start + ii));
-        }
-        callback.onSuccess(subList);
+        callback.onSuccess(page(_items, start, count));
     }
 
     // from DataModel
@@ -136,6 +132,19 @@ public class SimpleDataModel<T>
         }
     }
 
+    /**
+     * Returns a read-only view of the specified range of the supplied items, without copying
+     * them. The view is only valid until the items are next changed.
+     */
+    protected static <T> List<T> page (List<T> items, int start, int count)
+    {
+        int end = Math.min(start + count, items.size());
+        if (start >= end) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(items.subList(start, end));
+    }
+
     /**
      * Creates a filtered model using the supplied set of items. Subclasses of SimpleDataModel may
      * wish to return a subclass of SimpleDataModel themselves when filtered.
@@ -22,6 +22,8 @@
 package com.threerings.gwt.util;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
 
 import com.google.common.base.Function;
@@ -29,6 +31,17 @@ import com.google.common.base.Function;
 /**
  * Contains a changing value and provides a mechanism for listeners to react to changes to the
  * value.
+ *
+ * <p>Notifications are delivered in order of each value's depth in the graph of derived values
+ * (see {@link #map}), so a value derived from several others is recomputed, and notifies its
+ * listeners, only once all of the values it derives from have notified theirs. Updates made in a
+ * {@link Values#batch} are delivered together when the batch ends, each value notifying its
+ * listeners at most once.</p>
+ *
+ * <p>The queue of pending notifications is global, and shared by every value. Values must
+ * therefore only be used from a single thread, as is the case in a GWT client. This holds even
+ * for values that have nothing to do with one another, so values may not be used on other
+ * threads, on the server or by tests run in parallel, for example.</p>
  */
 public class Value<T>
 {
@@ -59,7 +72,11 @@ public class Value<T>
      */
     public void addListener (Listener<T> listener)
     {
-        _listeners.add(listener);
+        // we copy on write, so that notifying our listeners needn't snapshot them
+        List<Listener<T>> listeners = new ArrayList<Listener<T>>(_listeners.size() + 1);
+        listeners.addAll(_listeners);
+        listeners.add(listener);
+        _listeners = listeners;
     }
 
     /**
@@ -76,7 +93,21 @@ public class Value<T>
      */
     public void removeListener (Listener<T> listener)
     {
-        _listeners.remove(listener);
+        int idx = _listeners.indexOf(listener);
+        if (idx >= 0) {
+            List<Listener<T>> listeners = new ArrayList<Listener<T>>(_listeners);
+            listeners.remove(idx);
+            _listeners = listeners;
+        }
+    }
+
+    /**
+     * Returns the number of listeners to this value. This is mainly useful for tracking down
+     * listeners that are never removed.
+     */
+    public int getListenerCount ()
+    {
+        return _listeners.size();
     }
 
     /**
@@ -89,18 +120,16 @@ public class Value<T>
 
     /**
      * Updates this value and notifies all listeners. This will notify the listeners regardless of
-     * whether the supplied value differs from the current value.
+     * whether the supplied value differs from the current value. If this is called during a
+     * {@link Values#batch}, or by a listener, the listeners are notified (once, with the latest
+     * value) when the batch ends or the notifications in progress have been delivered.
      */
     public void update (T value)
     {
         // store our new current value
         _value = value;
-
-        // notify our listeners; we snapshot our listeners before iterating to avoid problems if
-        // listeners add or remove themselves while we're dispatching this notification
-        for (Listener<T> listener : new ArrayList<Listener<T>>(_listeners)) {
-            listener.valueChanged(value);
-        }
+        _version++;
+        changed();
     }
 
     /**
@@ -117,35 +146,263 @@ public class Value<T>
     /**
      * Creates a value that maps this value via a function. Every time the target value is updated
      * the mapped value will be updated, regardless of whether or not the mapped value differs. The
-     * returned value will be a view and reject attempts to call {@link #update}.
+     * returned value will be a view and reject attempts to call {@link #update}. The function is
+     * applied lazily, when the mapped value is read or must notify its listeners, and the mapped
+     * value only listens to this value while it has listeners itself.
      */
     public <M> Value<M> map (Function<T, M> func)
     {
         return new MappedValue<T, M>(this, func);
     }
 
-    /** Used by {@link #map}. */
-    protected static class MappedValue<A, B> extends Value<B> implements Listener<A>
+    /**
+     * Runs the supplied operation, deferring the notifications for any values it updates until it
+     * completes. See {@link Values#batch}.
+     */
+    protected static void batch (Runnable op)
     {
-        public MappedValue (Value<A> value, Function<A, B> func) {
-            super(func.apply(value.get()));
-            _func = func;
-            value.addListener(this);
+        _holds++;
+        try {
+            op.run();
+        } finally {
+            _holds--;
+            flush();
+        }
+    }
+
+    /**
+     * Queues this value to notify its listeners and, unless a batch or a flush is in progress,
+     * delivers the queued notifications.
+     */
+    protected void changed ()
+    {
+        enqueue();
+        flush();
+    }
+
+    /**
+     * Adds this value to the queue of values to notify their listeners, if it isn't already
+     * queued.
+     */
+    protected void enqueue ()
+    {
+        if (_queued) {
+            return;
+        }
+        _queued = true;
+        while (_queue.size() <= _depth) {
+            _queue.add(new LinkedList<Value<?>>());
+        }
+        _queue.get(_depth).add(this);
+    }
+
+    /**
+     * Called when this value's turn comes to notify its listeners. Derived values recompute
+     * themselves first.
+     */
+    protected void propagate ()
+    {
+        T value = _value;
+        for (Listener<T> listener : _listeners) {
+            listener.valueChanged(value);
+        }
+    }
+
+    /**
+     * Notes that this value is derived from the supplied value, so that it notifies its listeners
+     * after that value does.
+     */
+    protected void dependOn (Value<?> input)
+    {
+        _depth = Math.max(_depth, input._depth + 1);
+    }
+
+    /**
+     * Delivers the queued notifications, shallowest values first, unless a batch or a flush is
+     * already in progress. If a listener throws an exception, the rest of that value's listeners
+     * are not notified, but the other values' notifications are still delivered, after which the
+     * (first) exception is rethrown.
+     */
+    protected static void flush ()
+    {
+        if (_holds > 0) {
+            return;
+        }
+        _holds++;
+        RuntimeException failure = null;
+        try {
+            for (int depth = 0; depth < _queue.size(); ) {
+                LinkedList<Value<?>> values = _queue.get(depth);
+                if (values.isEmpty()) {
+                    depth++;
+                    continue;
+                }
+                // values of the same depth notify in the order in which they were updated
+                Value<?> value = values.removeFirst();
+                value._queued = false;
+                try {
+                    value.propagate();
+                } catch (RuntimeException re) {
+                    if (failure == null) {
+                        failure = re;
+                    }
+                }
+                // a listener may have updated a shallower value
+                depth = 0;
+            }
+        } finally {
+            _holds--;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Returns a number that changes whenever this value is updated, by which derived values tell
+     * whether they are out of date.
+     */
+    protected int version ()
+    {
+        return _version;
+    }
+
+    /**
+     * A value computed from other values. It is computed lazily, when it is read or when it
+     * notifies its listeners, and only if an input has been updated since it was last computed.
+     * It listens to its inputs only while it has listeners of its own, so a derived value that
+     * nobody is listening to does no work when its inputs change, and can be garbage collected
+     * even if its inputs live on.
+     */
+    protected abstract static class DerivedValue<T> extends Value<T>
+    {
+        protected DerivedValue (List<? extends Value<?>> inputs) {
+            super(null);
+            _inputs = inputs;
+            for (Value<?> input : inputs) {
+                dependOn(input);
+            }
         }
 
-        @Override // from Value<B>
-        public void update (B value) {
+        @Override // from Value<T>
+        public T get () {
+            refresh();
+            return _value;
+        }
+
+        @Override // from Value<T>
+        public void update (T value) {
             throw new UnsupportedOperationException();
         }
 
-        // from interface Value.Listener<A>
-        public void valueChanged (A value) {
-            super.update(_func.apply(value));
+        @Override // from Value<T>
+        public void addListener (Listener<T> listener) {
+            boolean first = _listeners.isEmpty();
+            super.addListener(listener);
+            if (first) {
+                for (Value<?> input : _inputs) {
+                    listen(input, true);
+                }
+            }
+        }
+
+        @Override // from Value<T>
+        public void removeListener (Listener<T> listener) {
+            boolean had = !_listeners.isEmpty();
+            super.removeListener(listener);
+            if (had && _listeners.isEmpty()) {
+                for (Value<?> input : _inputs) {
+                    listen(input, false);
+                }
+            }
+        }
+
+        @Override // from Value<T>
+        protected int version () {
+            refresh();
+            return _version;
+        }
+
+        @Override // from Value<T>
+        protected void propagate () {
+            refresh();
+            super.propagate();
         }
 
+        /**
+         * Recomputes our value if any of our inputs has been updated since it was last computed.
+         */
+        protected void refresh () {
+            int version = 0;
+            for (Value<?> input : _inputs) {
+                version += input.version();
+            }
+            if (!_computed || version != _inputVersion) {
+                _value = compute();
+                _version++;
+                _inputVersion = version;
+                _computed = true;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        protected <V> void listen (Value<V> input, boolean listen) {
+            Listener<V> listener = (Listener<V>)_inputListener;
+            if (listen) {
+                input.addListener(listener);
+            } else {
+                input.removeListener(listener);
+            }
+        }
+
+        /** Computes our value from our inputs. */
+        protected abstract T compute ();
+
+        protected List<? extends Value<?>> _inputs;
+
+        /** The sum of our inputs' versions when we last computed our value. */
+        protected int _inputVersion;
+        protected boolean _computed;
+
+        protected Listener<Object> _inputListener = new Listener<Object>() {
+            public void valueChanged (Object value) {
+                changed(); // we'll recompute once our inputs' other dependents are settled
+            }
+        };
+    }
+
+    /** Used by {@link #map}. */
+    protected static class MappedValue<A, B> extends DerivedValue<B>
+    {
+        public MappedValue (Value<A> value, Function<A, B> func) {
+            super(Collections.singletonList(value));
+            _source = value;
+            _func = func;
+        }
+
+        @Override // from DerivedValue<B>
+        protected B compute () {
+            return _func.apply(_source.get());
+        }
+
+        protected Value<A> _source;
         protected Function<A, B> _func;
     }
 
     protected T _value;
     protected List<Listener<T>> _listeners = new ArrayList<Listener<T>>();
+
+    /** Incremented whenever we're updated. */
+    protected int _version;
+    /** Our depth in the graph of derived values: zero unless we derive from other values. */
+    protected int _depth;
+
+    /** Whether we're queued to notify our listeners. */
+    protected boolean _queued;
+
+    /** The values waiting to notify their listeners, by depth. */
+    protected static List<LinkedList<Value<?>>> _queue = new ArrayList<LinkedList<Value<?>>>();
+
+    /** The number of batches and flushes in progress; notifications are held while nonzero. */
+    protected static int _holds;
 }
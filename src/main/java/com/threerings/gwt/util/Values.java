@@ -23,6 +23,8 @@ package com.threerings.gwt.util;
 
 import java.util.Arrays;
 
+import com.google.common.collect.Lists;
+
 import com.threerings.gwt.util.Functions;
 
 /**
@@ -30,6 +32,18 @@ import com.threerings.gwt.util.Functions;
  */
 public class Values
 {
+    /**
+     * Runs the supplied operation, holding back the notifications for the values it updates until
+     * it completes. Then each updated value, and each value derived from them, notifies its
+     * listeners once with its final value, so that bound widgets are updated once rather than
+     * for each change. Batches may be nested, in which case the notifications are delivered when
+     * the outermost batch completes (even if it fails).
+     */
+    public static void batch (Runnable op)
+    {
+        Value.batch(op);
+    }
+
     /**
      * Returns a value which is the logical NOT of the supplied value.
      */
@@ -43,16 +57,11 @@ public class Values
      */
     public static Value<Boolean> and (final Iterable<Value<Boolean>> values)
     {
-        MultiMappedValue<Boolean, Boolean> mapped =
-            new MultiMappedValue<Boolean, Boolean>(computeAnd(values)) {
-            @Override protected Boolean recompute (Boolean ignored) {
+        return new MultiMappedValue<Boolean, Boolean>(values) {
+            @Override protected Boolean compute () {
                 return computeAnd(values);
             }
         };
-        for (Value<Boolean> value : values) {
-            value.addListener(mapped);
-        }
-        return mapped;
     }
 
     /**
@@ -68,16 +77,11 @@ public class Values
      */
     public static Value<Boolean> or (final Iterable<Value<Boolean>> values)
     {
-        MultiMappedValue<Boolean, Boolean> mapped =
-            new MultiMappedValue<Boolean, Boolean>(computeOr(values)) {
-            @Override protected Boolean recompute (Boolean ignored) {
+        return new MultiMappedValue<Boolean, Boolean>(values) {
+            @Override protected Boolean compute () {
                 return computeOr(values);
             }
         };
-        for (Value<Boolean> value : values) {
-            value.addListener(mapped);
-        }
-        return mapped;
     }
 
     /**
@@ -109,24 +113,11 @@ public class Values
         return false;
     }
 
-    /** Used by {@link #map}. */
-    protected abstract static class MultiMappedValue<A, B> extends Value<B>
-        implements Value.Listener<A>
+    /** Used by {@link #and} and {@link #or}. */
+    protected abstract static class MultiMappedValue<A, B> extends Value.DerivedValue<B>
     {
-        protected MultiMappedValue (B current) {
-            super(current);
-        }
-
-        @Override // from Value<B>
-        public void update (B value) {
-            throw new UnsupportedOperationException();
+        protected MultiMappedValue (Iterable<Value<A>> inputs) {
+            super(Lists.newArrayList(inputs));
         }
-
-        // from interface Value.Listener<A>
-        public void valueChanged (A value) {
-            super.update(recompute(value));
-        }
-
-        protected abstract B recompute (A trigger);
     }
 }
@@ -0,0 +1,133 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.gwt.util;
+
+/**
+ * Bounds the work {@link WikiParser} does to render a document, for use with untrusted input (see
+ * {@link WikiParser#setLimits}). When a budget is exceeded the parser degrades gracefully rather
+ * than failing: over-long input and work beyond the work budget are rendered as escaped plain
+ * text, structures nested too deeply are not nested further, and links and images beyond the
+ * link budget are rendered as their text. Limits also count how many renders tripped each budget,
+ * so that abuse can be monitored. A limits instance may be shared by many parsers and threads.
+ */
+public class WikiLimits
+{
+    /** The budgets that can be exceeded. */
+    public enum Budget {
+        /** The length of the (preprocessed) wiki text. */
+        LENGTH,
+        /** The nesting depth of lists, tables and inline formatting. */
+        DEPTH,
+        /** The number of links and images. */
+        LINKS,
+        /** The number of parsing steps, which is roughly the number of characters examined. */
+        WORK };
+
+    /**
+     * Creates limits with the supplied budgets.
+     *
+     * @param maxLength the maximum length of text that is parsed as wiki text.
+     * @param maxDepth the maximum nesting depth of each of lists, tables and inline formats.
+     * @param maxLinks the maximum number of links and images that are rendered as such.
+     * @param maxWork the maximum number of parsing steps per render.
+     */
+    public WikiLimits (int maxLength, int maxDepth, int maxLinks, int maxWork)
+    {
+        _maxLength = maxLength;
+        _maxDepth = maxDepth;
+        _maxLinks = maxLinks;
+        _maxWork = maxWork;
+    }
+
+    public int getMaxLength ()
+    {
+        return _maxLength;
+    }
+
+    public int getMaxDepth ()
+    {
+        return _maxDepth;
+    }
+
+    public int getMaxLinks ()
+    {
+        return _maxLinks;
+    }
+
+    public int getMaxWork ()
+    {
+        return _maxWork;
+    }
+
+    /**
+     * Returns the number of renders performed with these limits.
+     */
+    public synchronized int getRenders ()
+    {
+        return _renders;
+    }
+
+    /**
+     * Returns the number of renders that exceeded the supplied budget.
+     */
+    public synchronized int getTrips (Budget budget)
+    {
+        return _trips[budget.ordinal()];
+    }
+
+    /**
+     * Clears the render and trip counts.
+     */
+    public synchronized void resetCounts ()
+    {
+        _renders = 0;
+        for (int ii = 0; ii < _trips.length; ii++) {
+            _trips[ii] = 0;
+        }
+    }
+
+    @Override // from Object
+    public String toString ()
+    {
+        return "[length=" + _maxLength + ", depth=" + _maxDepth + ", links=" + _maxLinks +
+            ", work=" + _maxWork + "]";
+    }
+
+    /**
+     * Records a render, which tripped the budgets whose bits (by ordinal) are set in the supplied
+     * mask.
+     */
+    synchronized void noteRender (int tripped)
+    {
+        _renders++;
+        for (int ii = 0; ii < _trips.length; ii++) {
+            if ((tripped & (1 << ii)) != 0) {
+                _trips[ii]++;
+            }
+        }
+    }
+
+    protected final int _maxLength, _maxDepth, _maxLinks, _maxWork;
+    protected int _renders;
+    protected int[] _trips = new int[Budget.values().length];
+}
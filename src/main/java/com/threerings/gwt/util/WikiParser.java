@@ -21,7 +21,12 @@
 
 package com.threerings.gwt.util;
 
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import static com.threerings.gwt.util.WikiUtils.*;
 
@@ -32,6 +37,9 @@ import static com.threerings.gwt.util.WikiUtils.*;
  * <p>WikiParser's behavior can be customized by overriding appendXxx() methods, which should make
  * integration of this class into any wiki/blog/forum software easy and painless.</p>
  *
+ * <p>Output other than XHTML can be produced by supplying a {@link WikiSink} to {@link
+ * #parse(String,WikiSink)}.</p>
+ *
  * <p>See http://code.google.com/p/t4-wiki-parser/ and http://www.wikicreole.org/</p>
  *
  * @author Yaroslav Stavnichiy (yarosla@gmail.com)
@@ -42,7 +50,17 @@ public class WikiParser
      * Renders the supplied wiki text to XHTML.
      */
     public static String render (String wikiText) {
-        return new WikiParser().doRender(wikiText);
+        return render(new WikiParser(), wikiText);
+    }
+
+    /**
+     * Renders the supplied wiki text to XHTML, writing the output to the supplied appendable as
+     * each top-level block is parsed. Unlike {@link #render(String)}, the whole document is never
+     * held in memory, only the largest block. If a table of contents placeholder is emitted, the
+     * output that follows it is held back until the table of contents is complete.
+     */
+    public static void render (String wikiText, Appendable out) throws IOException {
+        render(new WikiParser(), wikiText, out);
     }
 
     /**
@@ -51,32 +69,191 @@ public class WikiParser
      * block formatting.
      */
     public static String renderSnippet (String wikiText) {
-        return new WikiParser().doRenderSnippet(wikiText);
+        return renderSnippet(new WikiParser(), wikiText);
     }
 
-    protected String doRender (String text) {
-        wikiText=preprocessWikiText(text);
-        wikiLength=wikiText.length();
-        wikiChars=new char[wikiLength];
-        wikiText.getChars(0, wikiLength, wikiChars, 0);
+    /**
+     * Renders the supplied wiki text to XHTML using the supplied parser, which is {@link #reset}
+     * first. This allows a parser (and the buffers it has grown) to be reused for many documents.
+     */
+    public static String render (WikiParser parser, String wikiText) {
+        parser.reset();
+        return parser.doRender(wikiText);
+    }
 
-        while (parseBlock());
-        closeListsAndTables();
-        while (mediawikiTableLevel-- > 0) sb.append("</td></tr></table>\n");
-        completeTOC();
+    /**
+     * Renders the supplied wiki text to the supplied appendable using the supplied parser, which
+     * is {@link #reset} first. See {@link #render(String,Appendable)}.
+     */
+    public static void render (WikiParser parser, String wikiText, Appendable out)
+        throws IOException {
+        parser.reset();
+        parser.doRender(wikiText, out);
+    }
+
+    /**
+     * Renders the supplied wiki text snippet to XHTML using the supplied parser, which is {@link
+     * #reset} first. See {@link #renderSnippet(String)}.
+     */
+    public static String renderSnippet (WikiParser parser, String wikiText) {
+        parser.reset();
+        return parser.doRenderSnippet(wikiText);
+    }
+
+    /**
+     * Parses the supplied wiki text, reporting its structure to the supplied sink instead of
+     * rendering it to XHTML.
+     */
+    public static void parse (String wikiText, WikiSink sink) {
+        parse(new WikiParser(), wikiText, sink);
+    }
+
+    /**
+     * Parses the supplied wiki text snippet (see {@link #renderSnippet(String)}), reporting its
+     * structure to the supplied sink instead of rendering it to XHTML.
+     */
+    public static void parseSnippet (String wikiText, WikiSink sink) {
+        parseSnippet(new WikiParser(), wikiText, sink);
+    }
 
+    /**
+     * Parses the supplied wiki text with the supplied parser, which is {@link #reset} first,
+     * reporting its structure to the supplied sink. See {@link #parse(String,WikiSink)}.
+     */
+    public static void parse (WikiParser parser, String wikiText, WikiSink sink) {
+        parser.reset();
+        parser.sink=sink;
+        try {
+            parser.doParse(wikiText);
+        } finally {
+            parser.sink=parser.htmlSink;
+        }
+    }
+
+    /**
+     * Parses the supplied wiki text snippet with the supplied parser, which is {@link #reset}
+     * first, reporting its structure to the supplied sink. See {@link
+     * #parseSnippet(String,WikiSink)}.
+     */
+    public static void parseSnippet (WikiParser parser, String wikiText, WikiSink sink) {
+        parser.reset();
+        parser.sink=sink;
+        try {
+            parser.startRender(wikiText);
+            parser.parseItem(parser.pos, null, ContextType.PARAGRAPH);
+        } finally {
+            parser.sink=parser.htmlSink;
+        }
+    }
+
+    /**
+     * Clears all per-document state so that this parser can render another document. The buffers
+     * grown by previous renders are retained, unless a very large document made them bigger than
+     * {@link #MAX_RETAINED_CHARS}. Subclasses that keep per-document state of their own should
+     * override this method and call super.
+     */
+    public void reset () {
+        // don't let one huge document pin its buffers for the life of a reused parser
+        if (sb.capacity()>MAX_RETAINED_CHARS) sb=new StringBuilder();
+        else sb.setLength(0);
+        if (toc.capacity()>MAX_RETAINED_CHARS) toc=new StringBuilder();
+        else toc.setLength(0);
+        if (wikiChars!=null && wikiChars.length>MAX_RETAINED_CHARS) wikiChars=null;
+        tocLevel=0;
+        tocAnchorIds.clear();
+        tocAnchorCounts.clear();
+        wikiLength=0;
+        pos=0;
+        listLevel=-1;
+        blockquoteBR=false;
+        inTable=false;
+        mediawikiTableLevel=0;
+        tocPending=false;
+        unwinding=Unwinding.NONE;
+        sink=htmlSink;
+        htmlSink.reset();
+        limited=false;
+        work=0;
+        workLimit=Integer.MAX_VALUE;
+        inlineDepth=0;
+        linkCount=0;
+        tripped=0;
+    }
+
+    /**
+     * Bounds the work done by subsequent renders, for use with untrusted input. Limits apply to
+     * rendering to XHTML, not to {@link #parse(String,WikiSink)}. Pass null to remove them.
+     */
+    public void setLimits (WikiLimits limits) {
+        this.limits=limits;
+    }
+
+    /**
+     * Returns the limits installed with {@link #setLimits}, or null.
+     */
+    public WikiLimits getLimits () {
+        return limits;
+    }
+
+    /**
+     * Returns a string that identifies the configuration of this parser, which {@link
+     * WikiRenderCache} uses to keep apart the output of differently configured parsers.
+     * Subclasses with configuration of their own that affects their output should append it.
+     */
+    protected String getConfigKey () {
+        String key=getClass().getName()+":"+HEADING_LEVEL_SHIFT+":"+HEADING_ID_PREFIX;
+        return (limits==null) ? key : key+":"+limits;
+    }
+
+    protected String doRender (String text) {
+        if (startHtmlRender(text)) {
+            while (parseNextBlock());
+        } else {
+            appendPlainText(0);
+        }
+        finishRender();
+        finishLimits();
         return sb.toString();
     }
 
+    protected void doRender (String text, Appendable out) throws IOException {
+        if (startHtmlRender(text)) {
+            while (parseNextBlock()) flushBlock(out);
+        } else {
+            appendPlainText(0);
+        }
+        finishRender();
+        finishLimits();
+        out.append(sb);
+        sb.setLength(0);
+    }
+
     protected String doRenderSnippet (String text) {
-        wikiText=preprocessWikiText(text);
-        wikiLength=wikiText.length();
-        wikiChars=new char[wikiLength];
-        wikiText.getChars(0, wikiLength, wikiChars, 0);
-        parseItem(pos, null, ContextType.PARAGRAPH);
+        boolean parse=startHtmlRender(text);
+        if (parse) {
+            // a snippet is the content of a paragraph, which <pre> blocks must break out of
+            htmlSink.inParagraph=true;
+            try {
+                parseItem(pos, null, ContextType.PARAGRAPH);
+            } catch (RuntimeException e) {
+                if (!limited) throw e;
+                abortWork(); // as for parseNextBlock
+            }
+        }
+        if (!parse || unwinding==Unwinding.ABORTED) { // over budget, render it as plain text
+            sb.setLength(0);
+            escapeHTML(substring(0, wikiLength), 0, wikiLength, sb);
+        }
+        finishLimits();
         return sb.toString();
     }
 
+    protected void doParse (String text) {
+        startRender(text);
+        while (parseBlock());
+        closeBlocks();
+    }
+
     // protected void appendMacro(String text) {
     //     if ("TOC".equals(text)) {
     //         sb.append("<<<TOC>>>"); // put TOC placeholder for replacing it later with real TOC
@@ -92,11 +269,8 @@ public class WikiParser
         String[] link = split(text, '|');
         String uri = link[0].trim();
         String name = (link.length >= 2 && !isEmpty(link[1].trim())) ? link[1] : uri;
-        if (isAbsoluteURI(uri)) {
-            appendExternalLink(uri, name);
-        } else {
-            appendInternalLink(uri, name);
-        }
+        if (checkLinks()) sink.link(uri, name);
+        else sink.text(name);
     }
 
     protected void appendExternalLink (String uri, String text) {
@@ -111,15 +285,22 @@ public class WikiParser
         sb.append("</a>");
     }
 
+    /**
+     * Called before rendering begins, if {@link #RESOLVE_INTERNAL_TARGETS} is set, with the
+     * targets of the document's internal links and images in the order they first appear. This
+     * allows a subclass to look them all up at once, rather than one at a time in {@link
+     * #appendInternalLink} and {@link #appendInternalImage}. A target may occasionally be included
+     * that is not then rendered. Not called if the document has no internal targets.
+     */
+    protected void resolveInternalTargets (Set<String> links, Set<String> images) {
+    }
+
     protected void appendImage (String text) {
         String[] link = split(text, '|');
         String uri = link[0].trim();
         String name = (link.length >= 2 && !isEmpty(link[1].trim())) ? link[1] : uri;
-        if (isAbsoluteURI(uri)) {
-            appendExternalImage(uri, name);
-        } else {
-            appendInternalImage(uri, name);
-        }
+        if (checkLinks()) sink.image(uri, name);
+        else sink.text(name);
     }
 
     protected void appendExternalImage (String uri, String text) {
@@ -134,19 +315,27 @@ public class WikiParser
     }
 
     protected void appendText (String text) {
-        sb.append(escapeHTML(unescapeHTML(text)));
+        reescapeHTML(text, 0, text.length(), sb);
     }
 
+    /**
+     * Generates a document-unique anchor id for a heading. Duplicates of an id get a suffix
+     * counting up from {@code _1}; the count for each id is remembered so that many identical
+     * headings do not rescan the suffixes already used.
+     */
     protected String generateTOCAnchorId (int hLevel, String text) {
-        int i=0;
-        String id=(HEADING_ID_PREFIX!=null ? HEADING_ID_PREFIX :
-                   "H"+hLevel+"_")+translit(text.replaceAll("<.+?>", "")).trim().replaceAll(
-                       "\\s+", "_").replaceAll("[^a-zA-Z0-9_-]", "");
-        while (tocAnchorIds.contains(id)) { // avoid duplicates
-            i++;
-            id=text+"_"+i;
-        }
-        tocAnchorIds.add(id);
+        StringBuilder buf=new StringBuilder(HEADING_ID_PREFIX!=null ? HEADING_ID_PREFIX :
+                                            "H"+hLevel+"_");
+        appendAnchorId(text, true, buf);
+        String base=buf.toString(), id=base;
+        if (!tocAnchorIds.add(id)) { // avoid duplicates
+            Integer count=tocAnchorCounts.get(base);
+            int i=(count==null) ? 0 : count;
+            do {
+                id=base+"_"+(++i);
+            } while (!tocAnchorIds.add(id));
+            tocAnchorCounts.put(base, i);
+        }
         return id;
     }
 
@@ -172,29 +361,279 @@ public class WikiParser
             toc.append("</li></ul>");
             tocLevel--;
         }
-        int idx;
         String tocDiv="<div class='toc'>"+toc.toString()+"</div>";
-        while ((idx=sb.indexOf("<<<TOC>>>"))>=0) {
-            sb.replace(idx, idx+9, tocDiv);
+        int idx=sb.indexOf(TOC_PLACEHOLDER);
+        while (idx>=0) {
+            // each copy of the table of contents counts as work, so that it can't be multiplied
+            work+=tocDiv.length();
+            if (work>workLimit) {
+                trip(WikiLimits.Budget.WORK);
+                sb.delete(idx, idx+TOC_PLACEHOLDER.length());
+                idx=sb.indexOf(TOC_PLACEHOLDER, idx);
+                continue;
+            }
+            sb.replace(idx, idx+TOC_PLACEHOLDER.length(), tocDiv);
+            idx=sb.indexOf(TOC_PLACEHOLDER, idx+tocDiv.length());
         }
     }
 
+    /**
+     * Appends nowiki text, from which the parser has already removed the escapes of any {@code
+     * {{{} or {@code }}}} sequences.
+     */
     protected void appendNowiki (String text) {
-        sb.append(escapeHTML(replaceString(replaceString(text, "~{{{", "{{{"), "~}}}", "}}}")));
+        escapeHTML(text, 0, text.length(), sb);
+    }
+
+    /**
+     * Returns whether another link or image may be rendered as such, noting a trip if not.
+     */
+    private boolean checkLinks () {
+        if (!limited || ++linkCount<=limits.getMaxLinks()) return true;
+        trip(WikiLimits.Budget.LINKS);
+        return false;
     }
 
     private void closeListsAndTables () {
         // close unclosed lists
-        while (listLevel>=0) {
-            sb.append(LIST_CLOSE[LIST_CHARS.indexOf(listLevels[listLevel--])]);
-        }
+        while (listLevel>=0) closeList();
         if (inTable) {
-            sb.append("</table>\n");
+            sink.endTable();
             inTable=false;
         }
     }
 
+    private void openList (char c) {
+        sink.startList(LIST_TYPES[LIST_CHARS.indexOf(c)]);
+        sink.startListItem();
+        listLevels[++listLevel]=c;
+    }
+
+    private void closeList () {
+        sink.endListItem();
+        sink.endList(LIST_TYPES[LIST_CHARS.indexOf(listLevels[listLevel--])]);
+    }
+
+    private void endMediawikiTable () {
+        sink.endTableCell();
+        sink.endTableRow();
+        sink.endTable();
+        mediawikiTableLevel--;
+    }
+
+    private static String unescapeNowiki (String text) {
+        return replaceString(replaceString(text, "~{{{", "{{{"), "~}}}", "}}}");
+    }
+
+    /**
+     * Installs already preprocessed wiki text (see {@link WikiUtils#preprocessWikiText}) for
+     * parsing with {@link #parseChunk}. The parser uses the supplied array without copying it.
+     */
+    void setText (char[] chars, int length) {
+        wikiChars=chars;
+        wikiLength=length;
+    }
+
+    /**
+     * Parses blocks starting at the supplied position until no list or table remains open, which
+     * leaves the parser in the same state as at the start of a document. The output is appended
+     * to {@link #sb}, and headings are recorded in {@link #headings} if it is non-null. If the end
+     * of the text is reached, the markup closing any open blocks is appended as well. Afterwards
+     * {@link #scanLimit} bounds the text that was examined. Used by {@link
+     * IncrementalWikiRenderer}.
+     *
+     * @return the position following the parsed blocks or -1 if the end of the text was reached.
+     */
+    int parseChunk (int start) {
+        pos=start;
+        scanLimit=0;
+        boolean more;
+        do {
+            more=parseBlock();
+        } while (more && (listLevel>=0 || inTable || mediawikiTableLevel>0));
+        if (!more) {
+            closeBlocks();
+            noteScan(wikiLength+1);
+            return -1;
+        }
+        // the parser peeks up to two characters past any position it reaches
+        noteScan(pos+3);
+        return pos;
+    }
+
+    private void startRender (String text) {
+        int length=(text==null) ? 0 : text.length();
+        if (wikiChars==null || wikiChars.length<length) wikiChars=new char[length];
+        wikiLength=preprocessWikiText(text, wikiChars);
+    }
+
+    /**
+     * Installs the text for rendering to XHTML, prepares the limits and resolves the internal
+     * targets if requested.
+     *
+     * @return false if the text is too long to be parsed at all.
+     */
+    private boolean startHtmlRender (String text) {
+        startRender(text);
+        if (!startLimits()) return false;
+        if (RESOLVE_INTERNAL_TARGETS) {
+            Set<String> links=new LinkedHashSet<String>(), images=new LinkedHashSet<String>();
+            collectInternalTargets(links, images);
+            if (!links.isEmpty() || !images.isEmpty()) resolveInternalTargets(links, images);
+        }
+        return true;
+    }
+
+    /**
+     * Collects the targets of the internal links and images in the text being rendered with a
+     * quick scan rather than a parse. Every target that will be rendered is collected, along with
+     * the odd one that won't be, such as one that is escaped or inside a nowiki block. When limits
+     * are in effect, no more targets are collected than links may be rendered, so the odd one
+     * that will be rendered may be crowded out by one that won't be.
+     */
+    private void collectInternalTargets (Set<String> links, Set<String> images) {
+        int linkEnd=-1, imageEnd=-1; // the next "]]" and "}}" (or wikiLength)
+        int maxTargets=limited ? limits.getMaxLinks() : Integer.MAX_VALUE;
+        for (int i=0; i+2<wikiLength && links.size()+images.size()<maxTargets; i++) {
+            if (wikiChars[i]=='[' && wikiChars[i+1]=='[') {
+                if (linkEnd<i+2) linkEnd=find("]]", i+2);
+                if (linkEnd<wikiLength) addInternalTarget(links, substring(i+2, linkEnd));
+            }
+            else if (wikiChars[i]=='{' && wikiChars[i+1]=='{' && wikiChars[i+2]!='{') {
+                if (imageEnd<i+2) imageEnd=find("}}", i+2);
+                if (imageEnd<wikiLength) addInternalTarget(images, substring(i+2, imageEnd));
+            }
+        }
+    }
+
+    private static void addInternalTarget (Set<String> targets, String text) {
+        String uri=split(text, '|')[0].trim();
+        if (!isAbsoluteURI(uri)) targets.add(uri);
+    }
+
+    private void finishRender () {
+        closeBlocks();
+        completeTOC();
+    }
+
+    private void closeBlocks () {
+        closeListsAndTables();
+        while (mediawikiTableLevel>0) endMediawikiTable();
+    }
+
+    /**
+     * Prepares the limit state for a render of the text installed by {@link #startRender}.
+     *
+     * @return false if the text is too long to be parsed at all.
+     */
+    private boolean startLimits () {
+        limited=(limits!=null);
+        if (!limited) return true;
+        workLimit=limits.getMaxWork();
+        if (wikiLength<=limits.getMaxLength()) return true;
+        trip(WikiLimits.Budget.LENGTH);
+        return false;
+    }
+
+    private void finishLimits () {
+        if (limited) limits.noteRender(tripped);
+    }
+
+    private void trip (WikiLimits.Budget budget) {
+        tripped|=1<<budget.ordinal();
+    }
+
+    /**
+     * Returns whether a structure may be nested to the supplied depth, noting a trip if not.
+     */
+    private boolean checkDepth (int depth) {
+        if (!limited || depth<=limits.getMaxDepth()) return true;
+        trip(WikiLimits.Budget.DEPTH);
+        return false;
+    }
+
+    /**
+     * Aborts parsing because the work budget is exhausted.
+     */
+    private void abortWork () {
+        trip(WikiLimits.Budget.WORK);
+        unwinding=Unwinding.ABORTED;
+    }
+
+    /**
+     * Parses the next block like {@link #parseBlock}. If the work budget runs out while doing so,
+     * the output of the block is discarded, the open blocks are closed and the rest of the text
+     * is rendered as plain text. The same is done if the parser fails, so that untrusted input
+     * that trips over a parser bug is still rendered (and counted as having run out of work).
+     */
+    private boolean parseNextBlock () {
+        if (!limited) return parseBlock();
+        int mark=sb.length(), blockStart=pos, tocMark=toc.length(), savedTocLevel=tocLevel;
+        int savedListLevel=listLevel, savedTableLevel=mediawikiTableLevel;
+        boolean savedInTable=inTable, savedInParagraph=htmlSink.inParagraph;
+        int listDepth=htmlSink.listDepth, tableDepth=htmlSink.tableDepth;
+        boolean listStart=htmlSink.listStart;
+        int tableFlags=(tableDepth>=0) ? htmlSink.tables[tableDepth] : 0;
+
+        boolean more;
+        try {
+            more=parseBlock();
+        } catch (RuntimeException e) {
+            abortWork();
+            more=false;
+        }
+        if (unwinding!=Unwinding.ABORTED) return more;
+
+        listLevel=savedListLevel;
+        inTable=savedInTable;
+        mediawikiTableLevel=savedTableLevel;
+        toc.setLength(tocMark);
+        tocLevel=savedTocLevel;
+        htmlSink.inParagraph=savedInParagraph;
+        htmlSink.listDepth=listDepth;
+        htmlSink.listStart=listStart;
+        htmlSink.tableDepth=tableDepth;
+        if (tableDepth>=0) htmlSink.tables[tableDepth]=tableFlags;
+        sb.setLength(mark);
+        closeBlocks();
+        appendPlainText(blockStart);
+        return false;
+    }
+
+    /**
+     * Appends the text from the supplied position to the end, if any, as an escaped paragraph.
+     */
+    private void appendPlainText (int start) {
+        if (start>=wikiLength || isBlank(start, wikiLength)) return;
+        sb.append("<p>");
+        escapeHTML(substring(start, wikiLength), 0, wikiLength-start, sb);
+        sb.append("</p>\n");
+    }
+
+    /**
+     * Writes the output accumulated for the blocks parsed so far to the supplied appendable. Once
+     * a table of contents placeholder has been emitted, everything from the placeholder onward is
+     * held back so that {@link #completeTOC} can fill it in.
+     */
+    private void flushBlock (Appendable out) throws IOException {
+        if (tocPending) return;
+        int idx=sb.indexOf(TOC_PLACEHOLDER);
+        if (idx>=0) {
+            tocPending=true;
+            out.append(sb, 0, idx);
+            sb.delete(0, idx);
+        }
+        else {
+            out.append(sb);
+            sb.setLength(0);
+        }
+    }
+
     private boolean parseBlock () {
+        if (++work>workLimit) {
+            abortWork();
+            return false;
+        }
         pos = skipSpacesToNewline(pos, wikiLength);
         if (pos>=wikiLength) return false;
 
@@ -223,9 +662,15 @@ public class WikiParser
                     // nothing else on the line => it's mediawiki-table markup
                     if (pp==wikiLength || wikiChars[pp]=='\n') {
                         closeListsAndTables(); // close lists if any
-                        sb.append(newRow? "</td></tr>\n<tr><td>":
-                                  (endTable? "</td></tr></table>\n":"</td>\n<td>"));
-                        if (endTable) mediawikiTableLevel--;
+                        if (endTable) endMediawikiTable();
+                        else {
+                            sink.endTableCell();
+                            if (newRow) {
+                                sink.endTableRow();
+                                sink.startTableRow();
+                            }
+                            sink.startTableCell(false, 1);
+                        }
                         pos=pp+1;
                         return pp<wikiLength;
                     }
@@ -234,7 +679,7 @@ public class WikiParser
 
             if (!inTable) {
                 closeListsAndTables(); // close lists if any
-                sb.append("<table border=\"1\">");
+                sink.startTable(false);
                 inTable=true;
             }
             pos=parseTableRow(pos+1);
@@ -242,7 +687,7 @@ public class WikiParser
         }
         else {
             if (inTable) {
-                sb.append("</table>\n");
+                sink.endTable();
                 inTable=false;
             }
         }
@@ -255,7 +700,7 @@ public class WikiParser
 
             if (lc<=listLevel) { // end list block(s)
                 do {
-                    sb.append(LIST_CLOSE[LIST_CHARS.indexOf(listLevels[listLevel--])]);
+                    closeList();
                 } while (lc<=listLevel);
                 // list(s) closed => retry from the same position
                 blockquoteBR=true;
@@ -266,17 +711,15 @@ public class WikiParser
                 char cc=wikiChars[pos+lc];
                 int listType=LIST_CHARS.indexOf(cc);
                 if (listType>=0 && pos+lc+1<wikiLength && wikiChars[pos+lc+1]!=cc &&
-                    listLevel<MAX_LIST_LEVELS) { // new list block
-                    sb.append(LIST_OPEN[listType]);
-                    listLevels[++listLevel]=cc;
+                    listLevel<MAX_LIST_LEVELS && checkDepth(listLevel+2)) { // new list block
+                    openList(cc);
                     blockquoteBR=true;
                     pos=parseListItem(pos+lc+1);
                     return true;
                 }
                 else if (listLevel>=0) { // list item - same level
-                    if (listLevels[listLevel]=='>' || listLevels[listLevel]==':') sb.append('\n');
-                    else if (listLevels[listLevel]=='!') sb.append("</div>\n<div class='center'>");
-                    else sb.append("</li>\n<li>");
+                    sink.endListItem();
+                    sink.startListItem();
                     pos=parseListItem(pos+lc);
                     return true;
                 }
@@ -289,25 +732,17 @@ public class WikiParser
             for (hc=1; hc<6 && pos+hc<wikiLength && wikiChars[pos+hc]=='='; hc++) ;
             if (pos+hc>=wikiLength) return false;
             int p = skipSpacesTabs(pos+hc, wikiLength); // skip spaces
-            String tagName="h"+(hc+HEADING_LEVEL_SHIFT);
-            sb.append("<"+tagName+" id=''>"); // real id to be inserted after parsing this item
-            int hStart=sb.length();
-            pos=parseItem(p, wikiText.substring(pos, pos+hc), ContextType.HEADER);
-            String hText=sb.substring(hStart, sb.length());
-            sb.append("</"+tagName+">\n");
-            String anchorId=generateTOCAnchorId(hc, hText);
-            sb.insert(hStart-2, anchorId);
-            appendTOCItem(hc, anchorId, hText);
+            sink.startHeading(hc);
+            pos=parseItem(p, substring(pos, pos+hc), ContextType.HEADER);
+            sink.endHeading(hc);
             return true;
         }
         else if (c=='<' || c =='>') { // <<< is float left, >>> is float right
             if (pos+2 < wikiLength && wikiChars[pos+1] == c && wikiChars[pos+2] == c) {
                 pos = skipSpacesTabs(pos+3, wikiLength); // skip whitespace
-                String side = (c == '<') ? "left" : "right";
-                String margin = (c == '<') ? "right" : "left";
-                sb.append("<div style=\"float: " + side + "; margin-" + margin + ": 5px\">");
+                sink.startFloat(c == '<');
                 pos = parseItem(pos, null, ContextType.HEADER);
-                sb.append("</div>");
+                sink.endFloat();
                 return true;
             }
         }
@@ -316,12 +751,11 @@ public class WikiParser
                 int startNowiki=pos+3;
                 int endNowiki=findEndOfNowiki(startNowiki);
                 int endPos=endNowiki+3;
-                if (wikiText.lastIndexOf('\n', endNowiki)>=startNowiki) { // block <pre>
+                if (lastIndexOf('\n', endNowiki)>=startNowiki) { // block <pre>
                     if (wikiChars[startNowiki]=='\n') startNowiki++; // skip the very first '\n'
-                    if (wikiChars[endNowiki-1]=='\n') endNowiki--; // omit the very last '\n'
-                    sb.append("<pre>");
-                    appendNowiki(wikiText.substring(startNowiki, endNowiki));
-                    sb.append("</pre>\n");
+                    // omit the very last '\n' (unless it was also the first)
+                    if (endNowiki>startNowiki && wikiChars[endNowiki-1]=='\n') endNowiki--;
+                    sink.preformatted(unescapeNowiki(substring(startNowiki, endNowiki)));
                     pos=endPos;
                     return true;
                 }
@@ -329,18 +763,21 @@ public class WikiParser
             }
             else if (pos+1<wikiLength && wikiChars[pos+1]=='|') { // mediawiki-table?
                 int pp = skipSpacesTabs(pos+2, wikiLength); // skip spaces
-                if (pp==wikiLength || wikiChars[pp]=='\n') { // yes, it's start of a table
-                    sb.append("<table border=\"1\"><tr><td>");
+                // yes, it's start of a table
+                if ((pp==wikiLength || wikiChars[pp]=='\n') && checkDepth(mediawikiTableLevel+1)) {
+                    sink.startTable(true);
+                    sink.startTableRow();
+                    sink.startTableCell(false, 1);
                     mediawikiTableLevel++;
                     pos=pp+1;
                     return pp<wikiLength;
                 }
             }
         }
-        else if (c=='-' && wikiText.startsWith("----", pos)) {
+        else if (c=='-' && startsWith("----", pos)) {
             int p = skipSpacesTabs(pos+4, wikiLength); // skip spaces
             if (p==wikiLength || wikiChars[p]=='\n') {
-                sb.append("\n<hr/>\n");
+                sink.horizontalRule();
                 pos=p;
                 return true;
             }
@@ -373,9 +810,9 @@ public class WikiParser
         }
 
         { // paragraph handling
-            sb.append("<p>");
+            sink.startParagraph();
             pos=parseItem(pos, null, ContextType.PARAGRAPH);
-            sb.append("</p>\n");
+            sink.endParagraph();
             return true;
         }
     }
@@ -383,15 +820,88 @@ public class WikiParser
     private int skipSpacesTabs (int start, int end) {
         int pos = start;
         while (pos < end && (wikiChars[pos] == ' ' || wikiChars[pos] == '\t')) pos++;
+        noteScan(pos+1);
         return pos;
     }
 
     private int skipSpacesToNewline (int start, int end) {
         int pos = start;
         while (pos < end && wikiChars[pos] <= ' ' && wikiChars[pos] != '\n') pos++;
+        noteScan(pos+1);
         return pos;
     }
 
+    /**
+     * Notes that the text up to (but not including) the supplied position has been examined. A
+     * limit past the end of the text means that the end itself was relied upon.
+     */
+    private void noteScan (int limit) {
+        if (limit>scanLimit) scanLimit=limit;
+    }
+
+    private boolean startsWith (String prefix, int start) {
+        noteScan(Math.min(start+prefix.length(), wikiLength+1));
+        return matches(prefix, start);
+    }
+
+    private boolean matches (String prefix, int start) {
+        int length=prefix.length();
+        if (start<0 || start>wikiLength-length) return false;
+        for (int i=0; i<length; i++) {
+            if (wikiChars[start+i]!=prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private int indexOf (String str, int from) {
+        int start=Math.max(from, 0), i=find(str, start);
+        if (i<wikiLength) {
+            noteScan(i+str.length());
+            work+=i-start;
+            return i;
+        }
+        noteScan(wikiLength+1);
+        work+=wikiLength-start;
+        return -1;
+    }
+
+    /**
+     * Finds the supplied string from the supplied (non-negative) position without noting the
+     * scan, returning wikiLength if it does not occur.
+     */
+    private int find (String str, int from) {
+        for (int i=from, last=wikiLength-str.length(); i<=last; i++) {
+            if (matches(str, i)) return i;
+        }
+        return wikiLength;
+    }
+
+    private int lastIndexOf (String str, int from) {
+        noteScan(Math.min(from+str.length(), wikiLength+1));
+        for (int i=Math.min(from, wikiLength-str.length()); i>=0; i--) {
+            if (matches(str, i)) return i;
+        }
+        return -1;
+    }
+
+    private int lastIndexOf (char c, int from) {
+        for (int i=Math.min(from, wikiLength-1); i>=0; i--) {
+            if (wikiChars[i]==c) return i;
+        }
+        return -1;
+    }
+
+    private String substring (int start, int end) {
+        return new String(wikiChars, start, end-start);
+    }
+
+    private boolean isBlank (int start, int end) {
+        for (int i=start; i<end; i++) {
+            if (wikiChars[i]>' ') return false;
+        }
+        return true;
+    }
+
     /**
      * Finds first closing '}}}' for nowiki block or span.
      * Skips escaped sequences: '~}}}'.
@@ -403,10 +913,11 @@ public class WikiParser
         // NOTE: this method could step back one char from startBlock position
         int endBlock=startBlock-3;
         do {
-            endBlock=wikiText.indexOf("}}}", endBlock+3);
+            endBlock=indexOf("}}}", endBlock+3);
             if (endBlock<0) return wikiLength; // no matching '}}}' found
             while (endBlock+3<wikiLength && wikiChars[endBlock+3]=='}')
                 endBlock++; // shift to end of sequence of more than 3x'}' (eg. '}}}}}')
+            noteScan(endBlock+4);
         } while (wikiChars[endBlock-1]=='~');
         return endBlock;
     }
@@ -425,10 +936,10 @@ public class WikiParser
         int nextBlock=startBlock-3;
         do {
             do {
-                nextBlock=wikiText.indexOf("{{{", nextBlock+3);
+                nextBlock=indexOf("{{{", nextBlock+3);
             } while (nextBlock>0 && wikiChars[nextBlock-1]=='~');
             if (nextBlock<0) nextBlock=wikiLength;
-            int endBlock=wikiText.lastIndexOf("}}}", nextBlock);
+            int endBlock=lastIndexOf("}}}", nextBlock);
             if (endBlock>=startBlock && wikiChars[endBlock-1]!='~') return endBlock;
         } while (nextBlock<wikiLength);
         return wikiLength;
@@ -440,7 +951,7 @@ public class WikiParser
     private int parseTableRow (int start) {
         if (start>=wikiLength) return wikiLength;
 
-        sb.append("<tr>");
+        sink.startTableRow();
         boolean endOfRow=false;
         do {
             int colspan=0;
@@ -457,27 +968,22 @@ public class WikiParser
                 break;
             }
 
-            sb.append(th? "<th":"<td");
-            if (colspan>1) sb.append(" colspan=\""+colspan+"\"");
-            sb.append('>');
-            try {
-                parseItemThrow(start, null, ContextType.TABLE_CELL);
-            }
-            catch (EndOfSubContextException e) { // end of cell
-                start=e.position;
+            sink.startTableCell(th, colspan);
+            start=parseInline(start, null, ContextType.TABLE_CELL);
+            if (unwinding==Unwinding.END_OF_SUBCONTEXT) { // end of cell
                 if (start>=wikiLength) endOfRow=true;
                 else if (wikiChars[start]=='\n') {
                     start++; // eat '\n'
                     endOfRow=true;
                 }
             }
-            catch (EndOfContextException e) {
-                start=e.position;
+            else {
                 endOfRow=true;
             }
-            sb.append(th? "</th>":"</td>");
+            clearUnwinding();
+            sink.endTableCell();
         } while (!endOfRow/* && start<wikiLength && wikiChars[start]!='\n'*/);
-        sb.append("</tr>\n");
+        sink.endTableRow();
         return start;
     }
 
@@ -490,9 +996,10 @@ public class WikiParser
         start = skipSpacesToNewline(start, wikiLength); // skip spaces
         int end=parseItem(start, null, ContextType.LIST_ITEM);
         if ((listLevels[listLevel]=='>' || listLevels[listLevel]==':') &&
-            wikiText.substring(start, end).trim().length()==0) { // empty line within blockquote/div
+            isBlank(start, end)) { // empty line within blockquote/div
             if (!blockquoteBR) {
-                sb.append("<br/><br/>");
+                sink.lineBreak();
+                sink.lineBreak();
                 blockquoteBR=true;
             }
         }
@@ -515,12 +1022,15 @@ public class WikiParser
             while (pb>start && isLatinLetterOrDigit(wikiChars[pb-1])) pb--;
             int pe=p+2;
             while (pe<end && isUrlChar(wikiChars[pe])) pe++;
+            noteScan(pe+1);
+            work+=pe-pb;
             String uri = null;
             do {
                 // don't want these chars at the end of URI
                 while (pe>p+2 && ",.;:?!%)".indexOf(wikiChars[pe-1])>=0) pe--;
-                if (isURI(wikiText.substring(pb, pe))) {
-                    uri = wikiText.substring(pb, pe);
+                String candidate = substring(pb, pe);
+                if (isURI(candidate)) {
+                    uri = candidate;
                 } else {
                     pe--; // try chopping from the end
                 }
@@ -534,32 +1044,44 @@ public class WikiParser
     }
 
     private int checkApplyURI (StringBuilder tb, int p, int start, int end) {
-        int[] uriOffs=checkURI(p, start, end);
+        // the scheme can't reach back past the text buffer (e.g. into a link just emitted)
+        int[] uriOffs=checkURI(p, Math.max(start, p-tb.length()), end);
         if (uriOffs == null) return p;
 
-        flushToText(tb); // flush text buffer
         int pb=uriOffs[0], pe=uriOffs[1];
         if (pb>start && wikiChars[pb-1]=='~') {
-            sb.delete(sb.length()-(p-pb+1), sb.length()); // roll back URL + ~
-            sb.append(escapeHTML(wikiText.substring(pb, pe)));
+            tb.setLength(tb.length()-(p-pb+1)); // roll back URL + ~
+            flushToText(tb);
+            sink.text(substring(pb, pe));
         }
         else {
-            sb.delete(sb.length()-(p-pb), sb.length()); // roll back URL
-            appendLink(wikiText.substring(pb, pe));
+            tb.setLength(tb.length()-(p-pb)); // roll back URL
+            flushToText(tb);
+            appendLink(substring(pb, pe));
         }
         return pe;
     }
 
     private int parseItem (int start, String delimiter, ContextType context) {
-        try {
-            return parseItemThrow(start, delimiter, context);
-        } catch (EndOfContextException e) {
-            return e.position;
-        }
+        int end=parseInline(start, delimiter, context);
+        clearUnwinding();
+        return end;
     }
 
-    private int parseItemThrow (int start, String delimiter, ContextType context)
-        throws EndOfContextException {
+    /**
+     * Clears {@link #unwinding} once the context that ended has been closed, unless parsing was
+     * aborted, which unwinds everything.
+     */
+    private void clearUnwinding () {
+        if (unwinding!=Unwinding.ABORTED) unwinding=Unwinding.NONE;
+    }
+
+    /**
+     * Parses inline markup until the supplied delimiter is found or the context ends. In the
+     * latter case {@link #unwinding} is set, which tells the enclosing calls to return the
+     * position at which the context ended at once, closing their formatting as they go.
+     */
+    private int parseInline (int start, String delimiter, ContextType context) {
         StringBuilder tb=new StringBuilder();
 
         boolean specialCaseDelimiterHandling="//".equals(delimiter);
@@ -569,9 +1091,13 @@ public class WikiParser
         try {
           nextChar:
             while(true) {
-                if (p>=end) throw new EndOfContextException(end); //break;
+                if (++work>workLimit) {
+                    abortWork();
+                    return p;
+                }
+                if (p>=end) return endContext(end); //break;
 
-                if (delimiter!=null && wikiText.startsWith(delimiter, p)) {
+                if (delimiter!=null && startsWith(delimiter, p)) {
                     if (!specialCaseDelimiterHandling || checkURI(p, start, end)==null) {
                         p+=delimiter.length();
                         return p;
@@ -585,47 +1111,47 @@ public class WikiParser
                 if (c=='\n') {
                     if (context==ContextType.HEADER || context==ContextType.TABLE_CELL) {
                         p++;
-                        throw new EndOfContextException(p);
+                        return endContext(p);
                     }
                     if (p+1<end && wikiChars[p+1]=='\n') { // blank line delimits everything
                         p++; // eat one '\n' and leave another one unparsed so parseBlock()
                              // can close all lists
-                        throw new EndOfContextException(p);
+                        return endContext(p);
                     }
                     p = skipSpacesToNewline(p+1, end); // skip whitespace
-                    if (p>=end) throw new EndOfContextException(p); // end of text reached
+                    if (p>=end) return endContext(p); // end of text reached
 
                     c=wikiChars[p];
                     atLineStart=true;
 
-                    if (c=='-' && wikiText.startsWith("----", p)) { // check for ---- <hr>
+                    if (c=='-' && startsWith("----", p)) { // check for ---- <hr>
                         int pp = skipSpacesTabs(p+4, end); // skip spaces
                         // yes, it's <hr>
-                        if (pp==end || wikiChars[pp]=='\n') throw new EndOfContextException(p);
+                        if (pp==end || wikiChars[pp]=='\n') return endContext(p);
                     }
 
                     if (LIST_CHARS.indexOf(c)>=0) { // start of list item?
-                        if (FORMAT_CHARS.indexOf(c)<0) throw new EndOfContextException(p);
+                        if (FORMAT_CHARS.indexOf(c)<0) return endContext(p);
                         // here we have a list char, which also happen to be a format char
                         if (p+1<end && wikiChars[p+1]!=c) // format chars go in pairs
-                            throw new EndOfContextException(p);
+                            return endContext(p);
                         if (/*context==ContextType.LIST_ITEM*/ listLevel>=0 && c==listLevels[0]) {
                             // c matches current list's first level, so it must be new list item
-                            throw new EndOfContextException(p);
+                            return endContext(p);
                         }
                         // otherwise it must be just formatting sequence => no break of context
                     }
                     else if (c=='=') { // header
-                        throw new EndOfContextException(p);
+                        return endContext(p);
                     }
                     else if (c=='|') { // table or mediawiki-table
-                        throw new EndOfContextException(p);
+                        return endContext(p);
                     }
                     else if (c=='{') { // mediawiki-table?
                         if (p+1<end && wikiChars[p+1]=='|') {
                             int pp = skipSpacesTabs(p+2, end); // skip spaces
                             if (pp==end || wikiChars[pp]=='\n') // yes, it's start of a table
-                                throw new EndOfContextException(p);
+                                return endContext(p);
                         }
                     }
 
@@ -636,7 +1162,8 @@ public class WikiParser
                 else if (c=='|') {
                     if (context==ContextType.TABLE_CELL) {
                         p++;
-                        throw new EndOfSubContextException(p);
+                        unwinding=Unwinding.END_OF_SUBCONTEXT;
+                        return p;
                     }
                 }
 
@@ -649,32 +1176,26 @@ public class WikiParser
                             int startNowiki=p+3;
                             int endNowiki=findEndOfNowiki(startNowiki);
                             p=endNowiki+3;
-                            if (wikiText.lastIndexOf('\n', endNowiki)>=startNowiki) { // block <pre>
+                            if (lastIndexOf('\n', endNowiki)>=startNowiki) { // block <pre>
                                 // skip the very first '\n'
                                 if (wikiChars[startNowiki]=='\n') startNowiki++;
-                                // omit the very last '\n'
-                                if (wikiChars[endNowiki-1]=='\n') endNowiki--;
-                                // break the paragraph because XHTML does not allow <pre> children
-                                // of <p>
-                                if (context==ContextType.PARAGRAPH) sb.append("</p>");
-                                sb.append("<pre>");
-                                appendNowiki(wikiText.substring(startNowiki, endNowiki));
-                                sb.append("</pre>\n");
-                                // continue the paragraph
-                                if (context==ContextType.PARAGRAPH) sb.append("<p>");
+                                // omit the very last '\n' (unless it was also the first)
+                                if (endNowiki>startNowiki && wikiChars[endNowiki-1]=='\n')
+                                    endNowiki--;
+                                sink.preformatted(unescapeNowiki(substring(startNowiki, endNowiki)));
                                 // in this context return immediately after nowiki
                                 //if (context==ContextType.NOWIKI_BLOCK) return p;
                             }
                             else { // inline <nowiki>
-                                appendNowiki(wikiText.substring(startNowiki, endNowiki));
+                                sink.nowiki(unescapeNowiki(substring(startNowiki, endNowiki)));
                             }
                             continue;
                         }
                         else if (p+2<end) { // {{image}}
-                            int endImg=wikiText.indexOf("}}", p+2);
+                            int endImg=indexOf("}}", p+2);
                             if (endImg>=0 && endImg<end) {
                                 flushToText(tb); // flush text buffer
-                                appendImage(wikiText.substring(p+2, endImg));
+                                appendImage(substring(p+2, endImg));
                                 p=endImg+2;
                                 continue;
                             }
@@ -683,23 +1204,21 @@ public class WikiParser
                 }
                 else if (c=='[') {
                     if (p+1<end && wikiChars[p+1]=='[') { // [[link]]
-                        int endLink=wikiText.indexOf("]]", p+2);
+                        int endLink=indexOf("]]", p+2);
                         if (endLink>=0 && endLink<end) {
                             // flush text buffer
                             flushToText(tb);
-                            appendLink(wikiText.substring(p+2, endLink));
+                            appendLink(substring(p+2, endLink));
                             p=endLink+2;
                             continue;
                         }
                     }
                 }
                 else if (c=='`') {
-                    int endCode=wikiText.indexOf("`", p+1); // `inline code`
+                    int endCode=indexOf("`", p+1); // `inline code`
                     if (endCode>=0 && endCode<end) {
                         flushToText(tb); // flush text buffer
-                        sb.append("<code>");
-                        sb.append(escapeHTML(wikiText.substring(p+1, endCode)));
-                        sb.append("</code>");
+                        sink.code(substring(p+1, endCode));
                         p=endCode+1;
                         continue;
                     }
@@ -707,7 +1226,7 @@ public class WikiParser
                 else if (c=='\\') {
                     if (p+1<end && wikiChars[p+1]=='\\') { // \\ = <br/>
                         flushToText(tb); // flush text buffer
-                        sb.append("<br/>");
+                        sink.lineBreak();
                         p+=2;
                         continue;
                     }
@@ -727,9 +1246,9 @@ public class WikiParser
                 //     }
                 // }
                 else if ((formatType=FORMAT_CHARS.indexOf(c))>=0) {
-                    if (p+1 < end && wikiChars[p+1] == c &&
+                    if (p+1 < end && wikiChars[p+1] == c && checkDepth(inlineDepth+1) &&
                         // make sure we see a matching close delimiter somewhere ahead
-                        wikiText.substring(p+2, end).indexOf(""+c+c) != -1) {
+                        indexOf(FORMAT_DELIM[formatType], p+2) != -1) {
                         // special case for "//" - check if it is part of URL (scheme://etc)
                         int np = checkApplyURI(tb, p, start, end);
                         if (np != p) {
@@ -737,13 +1256,12 @@ public class WikiParser
                             continue;
                         }
                         flushToText(tb); // flush text buffer
-                        sb.append(FORMAT_TAG_OPEN[formatType]);
-                        try {
-                            p=parseItemThrow(p+2, FORMAT_DELIM[formatType], context);
-                        }
-                        finally {
-                            sb.append(FORMAT_TAG_CLOSE[formatType]);
-                        }
+                        sink.startFormat(FORMATS[formatType]);
+                        inlineDepth++;
+                        p=parseInline(p+2, FORMAT_DELIM[formatType], context);
+                        inlineDepth--;
+                        sink.endFormat(FORMATS[formatType]);
+                        if (unwinding!=Unwinding.NONE) return p;
                         continue;
                     }
                     else if (c=='/') {
@@ -799,7 +1317,7 @@ public class WikiParser
                         }
                     }
                     for (String e: ESCAPED_INLINE_SEQUENCES) {
-                        if (wikiText.startsWith(e, p+1)) {
+                        if (startsWith(e, p+1)) {
                             tb.append(e);
                             p+=1+e.length();
                             continue nextChar;
@@ -814,37 +1332,202 @@ public class WikiParser
         }
     }
 
+    private int endContext (int position) {
+        unwinding=Unwinding.END_OF_CONTEXT;
+        return position;
+    }
+
     private void flushToText (StringBuilder flush) {
-        appendText(flush.toString()); flush.delete(0, flush.length());
+        if (flush.length()==0) return;
+        sink.text(flush.toString()); flush.setLength(0);
     }
 
-    private static class EndOfContextException extends Exception {
-        private static final long serialVersionUID=1L;
-        int position;
-        public EndOfContextException (int position) {
-            super();
-            this.position=position;
+    /**
+     * Renders parse events to XHTML in {@link #sb}, using the parser's {@code appendXxx} methods
+     * where they exist so that subclasses can customize the output.
+     */
+    private class HtmlSink implements WikiSink {
+        public void startParagraph () {
+            sb.append("<p>");
+            inParagraph=true;
+        }
+        public void endParagraph () {
+            sb.append("</p>\n");
+            inParagraph=false;
+        }
+
+        public void startHeading (int level) {
+            sb.append("<h"+(level+HEADING_LEVEL_SHIFT)+" id=''>"); // id is inserted at the end
+            hStart=sb.length();
+        }
+        public void endHeading (int level) {
+            String hText=sb.substring(hStart, sb.length());
+            sb.append("</h"+(level+HEADING_LEVEL_SHIFT)+">\n");
+            String anchorId=generateTOCAnchorId(level, hText);
+            sb.insert(hStart-2, anchorId);
+            appendTOCItem(level, anchorId, hText);
+            if (headings!=null) headings.add(new Heading(level, hText, anchorId, hStart-2));
+        }
+
+        public void startList (ListType type) {
+            sb.append(LIST_OPEN[type.ordinal()]);
+            lists[++listDepth]=type.ordinal();
+            listStart=true;
+        }
+        public void endList (ListType type) {
+            sb.append(LIST_CLOSE[type.ordinal()]);
+            listDepth--;
+        }
+        public void startListItem () {
+            if (!listStart) sb.append('\n');
+            sb.append(LIST_ITEM_OPEN[lists[listDepth]]);
+            listStart=false;
+        }
+        public void endListItem () {
+            sb.append(LIST_ITEM_CLOSE[lists[listDepth]]);
+        }
+
+        public void startTable (boolean blockCells) {
+            sb.append("<table border=\"1\">");
+            if (++tableDepth==tables.length) {
+                int[] ntables=new int[tables.length*2];
+                System.arraycopy(tables, 0, ntables, 0, tables.length);
+                tables=ntables;
+            }
+            tables[tableDepth]=blockCells ? BLOCK_CELLS : 0;
+        }
+        public void endTable () {
+            sb.append("</table>\n");
+            tableDepth--;
+        }
+        public void startTableRow () {
+            // rows of block tables are separated by newlines, those of others end with one
+            if ((tables[tableDepth]&(BLOCK_CELLS|ROW_STARTED))==(BLOCK_CELLS|ROW_STARTED))
+                sb.append('\n');
+            sb.append("<tr>");
+            tables[tableDepth]=(tables[tableDepth]|ROW_STARTED)&~CELL_STARTED;
+        }
+        public void endTableRow () {
+            sb.append((tables[tableDepth]&BLOCK_CELLS)!=0 ? "</tr>" : "</tr>\n");
+        }
+        public void startTableCell (boolean header, int colspan) {
+            if ((tables[tableDepth]&(BLOCK_CELLS|CELL_STARTED))==(BLOCK_CELLS|CELL_STARTED))
+                sb.append('\n');
+            sb.append(header? "<th":"<td");
+            if (colspan>1) sb.append(" colspan=\""+colspan+"\"");
+            sb.append('>');
+            tables[tableDepth]=(tables[tableDepth]|CELL_STARTED)&~HEADER_CELL|
+                (header ? HEADER_CELL : 0);
+        }
+        public void endTableCell () {
+            sb.append((tables[tableDepth]&HEADER_CELL)!=0 ? "</th>":"</td>");
+        }
+
+        public void startFloat (boolean left) {
+            String side = left ? "left" : "right";
+            String margin = left ? "right" : "left";
+            sb.append("<div style=\"float: " + side + "; margin-" + margin + ": 5px\">");
+        }
+        public void endFloat () {
+            sb.append("</div>");
+        }
+
+        public void horizontalRule () {
+            sb.append("\n<hr/>\n");
+        }
+
+        public void preformatted (String text) {
+            // break the paragraph because XHTML does not allow <pre> children of <p>
+            if (inParagraph) sb.append("</p>");
+            sb.append("<pre>");
+            appendNowiki(text);
+            sb.append("</pre>\n");
+            // continue the paragraph
+            if (inParagraph) sb.append("<p>");
+        }
+
+        public void startFormat (Format format) {
+            sb.append(FORMAT_TAG_OPEN[format.ordinal()]);
+        }
+        public void endFormat (Format format) {
+            sb.append(FORMAT_TAG_CLOSE[format.ordinal()]);
+        }
+
+        public void text (String text) {
+            appendText(text);
         }
+        public void nowiki (String text) {
+            appendNowiki(text);
+        }
+        public void code (String text) {
+            sb.append("<code>");
+            escapeHTML(text, 0, text.length(), sb);
+            sb.append("</code>");
+        }
+        public void lineBreak () {
+            sb.append("<br/>");
+        }
+
+        public void link (String uri, String text) {
+            if (isAbsoluteURI(uri)) {
+                appendExternalLink(uri, text);
+            } else {
+                appendInternalLink(uri, text);
+            }
+        }
+        public void image (String uri, String text) {
+            if (isAbsoluteURI(uri)) {
+                appendExternalImage(uri, text);
+            } else {
+                appendInternalImage(uri, text);
+            }
+        }
+
+        void reset () {
+            inParagraph=false;
+            listDepth=-1;
+            tableDepth=-1;
+        }
+
+        boolean inParagraph;
+        int hStart;
+        int[] lists=new int[MAX_LIST_LEVELS+1];
+        int listDepth=-1;
+        boolean listStart;
+        int[] tables=new int[4];
+        int tableDepth=-1;
     }
 
-    private static class EndOfSubContextException extends EndOfContextException {
-        private static final long serialVersionUID=1L;
-        public EndOfSubContextException (int position) {
-            super(position);
+    /** A heading recorded by {@link #parseChunk}. */
+    static class Heading {
+        final int level;
+        final String text;
+        String anchorId;
+        int offset; // of the anchor id in the chunk's output
+
+        Heading (int level, String text, String anchorId, int offset) {
+            this.level=level;
+            this.text=text;
+            this.anchorId=anchorId;
+            this.offset=offset;
         }
     }
 
+    /** The largest buffer (in chars) that {@link #reset} retains for the next render. */
+    protected static final int MAX_RETAINED_CHARS=64*1024;
+
     protected StringBuilder sb=new StringBuilder();
     protected StringBuilder toc=new StringBuilder();
     protected int tocLevel=0;
 
     protected int HEADING_LEVEL_SHIFT=1; // make =h2, ==h3, ...
     protected String HEADING_ID_PREFIX=null;
+    protected boolean RESOLVE_INTERNAL_TARGETS=false; // call resolveInternalTargets() first
 
     private int wikiLength;
     private char wikiChars[];
     private HashSet<String> tocAnchorIds=new HashSet<String>();
-    private String wikiText;
+    private HashMap<String, Integer> tocAnchorCounts=new HashMap<String, Integer>();
     private int pos=0;
     private int listLevel=-1;
     private static final int MAX_LIST_LEVELS=100;
@@ -852,20 +1535,46 @@ public class WikiParser
     private boolean blockquoteBR=false;
     private boolean inTable=false;
     private int mediawikiTableLevel=0;
+    private boolean tocPending=false;
+    private Unwinding unwinding=Unwinding.NONE;
+    private final HtmlSink htmlSink=new HtmlSink();
+    private WikiSink sink=htmlSink;
+
+    // per-render limit state, see setLimits()
+    private WikiLimits limits;
+    private boolean limited;
+    private int work, workLimit=Integer.MAX_VALUE, inlineDepth, linkCount, tripped;
+
+    // used by IncrementalWikiRenderer
+    List<Heading> headings;
+    int scanLimit;
+
+    private static final String TOC_PLACEHOLDER="<<<TOC>>>";
 
     private static enum ContextType {PARAGRAPH, LIST_ITEM, TABLE_CELL, HEADER, NOWIKI_BLOCK};
 
+    /** Whether (and why) inline parsing is returning from nested contexts. */
+    private static enum Unwinding {NONE, END_OF_CONTEXT, END_OF_SUBCONTEXT, ABORTED};
+
     private static final String[] ESCAPED_INLINE_SEQUENCES= {
         "{{{", "{{", "}}}", "**", "//", "__", "##", "\\\\", "[[", "<<<", "~", "--", "|"};
 
     private static final String LIST_CHARS="*-#>:!";
+    private static final WikiSink.ListType[] LIST_TYPES=WikiSink.ListType.values();
     private static final String[] LIST_OPEN= {
-        "<ul><li>", "<ul><li>", "<ol><li>", "<blockquote>", "<div class='indent'>",
-        "<div class='center'>"};
+        "<ul>", "<ul>", "<ol>", "<blockquote>", "<div class='indent'>", ""};
+    private static final String[] LIST_ITEM_OPEN= {
+        "<li>", "<li>", "<li>", "", "", "<div class='center'>"};
+    private static final String[] LIST_ITEM_CLOSE= {
+        "</li>", "</li>", "</li>", "", "", "</div>"};
     private static final String[] LIST_CLOSE= {
-        "</li></ul>\n", "</li></ul>\n", "</li></ol>\n", "</blockquote>\n", "</div>\n", "</div>\n"};
+        "</ul>\n", "</ul>\n", "</ol>\n", "</blockquote>\n", "</div>\n", "\n"};
+
+    // HtmlSink table state flags
+    private static final int BLOCK_CELLS=1, ROW_STARTED=2, CELL_STARTED=4, HEADER_CELL=8;
 
     private static final String FORMAT_CHARS="*/_#-";
+    private static final WikiSink.Format[] FORMATS=WikiSink.Format.values();
     private static final String[] FORMAT_DELIM= {"**", "//", "__", "##", "--"};
     private static final String[] FORMAT_TAG_OPEN= {
         "<strong>", "<em>", "<span class=\"underline\">", "<tt>", "<strike>"};
@@ -0,0 +1,133 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.gwt.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Maintains a pool of {@link WikiParser} instances which are reused from render to render, so
+ * that batch rendering many documents allocates little beyond the rendered output. The pool may
+ * be shared between threads on the server; each parser is used by only one thread at a time.
+ */
+public class WikiParserPool
+{
+    /**
+     * Creates a pool of plain {@link WikiParser}s that retains at most {@code maxIdle} idle
+     * parsers.
+     */
+    public WikiParserPool (int maxIdle)
+    {
+        this(new Supplier<WikiParser>() {
+            public WikiParser get () {
+                return new WikiParser();
+            }
+        }, maxIdle);
+    }
+
+    /**
+     * Creates a pool that obtains new parsers from the supplied factory (which will generally
+     * create a configured subclass) and retains at most {@code maxIdle} idle parsers.
+     */
+    public WikiParserPool (Supplier<? extends WikiParser> factory, int maxIdle)
+    {
+        _factory = factory;
+        _maxIdle = maxIdle;
+    }
+
+    /**
+     * Renders the supplied wiki text to XHTML with a pooled parser. See {@link
+     * WikiParser#render(String)}.
+     */
+    public String render (String wikiText)
+    {
+        WikiParser parser = acquire();
+        try {
+            return WikiParser.render(parser, wikiText);
+        } finally {
+            release(parser);
+        }
+    }
+
+    /**
+     * Renders the supplied wiki text to the supplied appendable with a pooled parser. See {@link
+     * WikiParser#render(String,Appendable)}.
+     */
+    public void render (String wikiText, Appendable out)
+        throws IOException
+    {
+        WikiParser parser = acquire();
+        try {
+            WikiParser.render(parser, wikiText, out);
+        } finally {
+            release(parser);
+        }
+    }
+
+    /**
+     * Renders the supplied wiki text snippet to XHTML with a pooled parser. See {@link
+     * WikiParser#renderSnippet(String)}.
+     */
+    public String renderSnippet (String wikiText)
+    {
+        WikiParser parser = acquire();
+        try {
+            return WikiParser.renderSnippet(parser, wikiText);
+        } finally {
+            release(parser);
+        }
+    }
+
+    /**
+     * Obtains a parser from the pool, creating one if no idle parser is available. The parser
+     * must be returned via {@link #release} when the caller is done with it.
+     */
+    public WikiParser acquire ()
+    {
+        synchronized (_idle) {
+            if (!_idle.isEmpty()) {
+                return _idle.remove(_idle.size()-1);
+            }
+        }
+        return _factory.get();
+    }
+
+    /**
+     * Returns a parser obtained via {@link #acquire} to the pool.
+     */
+    public void release (WikiParser parser)
+    {
+        parser.reset();
+        synchronized (_idle) {
+            if (_idle.size() < _maxIdle) {
+                _idle.add(parser);
+            }
+        }
+    }
+
+    protected final Supplier<? extends WikiParser> _factory;
+    protected final int _maxIdle;
+    protected final List<WikiParser> _idle = new ArrayList<WikiParser>();
+}
@@ -0,0 +1,214 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.gwt.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the output of {@link WikiParser} so that text which is rendered over and over
+ * (signatures, FAQ blocks, pinned posts) is only parsed once. Renders are keyed on the
+ * preprocessed wiki text and the configuration of the rendering parser (see {@link
+ * WikiParser#getConfigKey}), and the least recently used renders are evicted once the cache
+ * exceeds either its entry or its weight limit. The cache works in GWT client code as well as on
+ * the server, where it may be shared between threads.
+ */
+public class WikiRenderCache
+{
+    /**
+     * Creates a cache that holds at most {@code maxEntries} renders and at most {@code maxWeight}
+     * characters of wiki text and rendered XHTML combined.
+     */
+    public WikiRenderCache (int maxEntries, int maxWeight)
+    {
+        _maxEntries = maxEntries;
+        _maxWeight = maxWeight;
+    }
+
+    /**
+     * Returns the cached XHTML for the supplied text, rendering it with the supplied parser (via
+     * {@link WikiParser#render(WikiParser,String)}) if it is not cached.
+     */
+    public String render (WikiParser parser, String wikiText)
+    {
+        return render(parser, wikiText, false);
+    }
+
+    /**
+     * Returns the cached XHTML for the supplied snippet, rendering it with the supplied parser
+     * (via {@link WikiParser#renderSnippet(WikiParser,String)}) if it is not cached.
+     */
+    public String renderSnippet (WikiParser parser, String wikiText)
+    {
+        return render(parser, wikiText, true);
+    }
+
+    /**
+     * Returns the cached XHTML for the supplied text, rendering it with a parser from the supplied
+     * pool if it is not cached.
+     */
+    public String render (WikiParserPool pool, String wikiText)
+    {
+        WikiParser parser = pool.acquire();
+        try {
+            return render(parser, wikiText, false);
+        } finally {
+            pool.release(parser);
+        }
+    }
+
+    /**
+     * Returns the cached XHTML for the supplied snippet, rendering it with a parser from the
+     * supplied pool if it is not cached.
+     */
+    public String renderSnippet (WikiParserPool pool, String wikiText)
+    {
+        WikiParser parser = pool.acquire();
+        try {
+            return render(parser, wikiText, true);
+        } finally {
+            pool.release(parser);
+        }
+    }
+
+    /** Returns the number of renders that were satisfied from the cache. */
+    public synchronized int getHits ()
+    {
+        return _hits;
+    }
+
+    /** Returns the number of renders that were not satisfied from the cache. */
+    public synchronized int getMisses ()
+    {
+        return _misses;
+    }
+
+    /** Returns the number of renders evicted to keep the cache within its limits. */
+    public synchronized int getEvictions ()
+    {
+        return _evictions;
+    }
+
+    /** Returns the number of renders in the cache. */
+    public synchronized int size ()
+    {
+        return _renders.size();
+    }
+
+    /** Returns the combined weight (in characters) of the renders in the cache. */
+    public synchronized int getWeight ()
+    {
+        return _weight;
+    }
+
+    /**
+     * Clears all cached renders. The hit, miss and eviction counts are retained.
+     */
+    public synchronized void clear ()
+    {
+        _renders.clear();
+        _weight = 0;
+    }
+
+    protected String render (WikiParser parser, String wikiText, boolean snippet)
+    {
+        Key key = new Key(parser.getConfigKey(), snippet, WikiUtils.preprocessWikiText(wikiText));
+        synchronized (this) {
+            String html = _renders.get(key);
+            if (html != null) {
+                _hits++;
+                return html;
+            }
+            _misses++;
+        }
+
+        // render outside the lock; if two threads render the same text at once, so be it
+        String html = snippet ? WikiParser.renderSnippet(parser, key.text) :
+            WikiParser.render(parser, key.text);
+        int weight = weigh(key, html);
+        if (weight <= _maxWeight) {
+            synchronized (this) {
+                String old = _renders.put(key, html);
+                _weight += weight - (old == null ? 0 : weigh(key, old));
+                prune();
+            }
+        }
+        return html;
+    }
+
+    /**
+     * Evicts the least recently used renders until we are within our limits.
+     */
+    protected void prune ()
+    {
+        Iterator<Map.Entry<Key, String>> iter = _renders.entrySet().iterator();
+        while ((_renders.size() > _maxEntries || _weight > _maxWeight) && iter.hasNext()) {
+            Map.Entry<Key, String> entry = iter.next();
+            _weight -= weigh(entry.getKey(), entry.getValue());
+            iter.remove();
+            _evictions++;
+        }
+    }
+
+    protected static int weigh (Key key, String html)
+    {
+        return key.text.length() + html.length();
+    }
+
+    /** Identifies a render: the parser configuration, render mode and preprocessed text. */
+    protected static class Key
+    {
+        public final String config;
+        public final boolean snippet;
+        public final String text;
+
+        public Key (String config, boolean snippet, String text) {
+            this.config = config;
+            this.snippet = snippet;
+            this.text = text;
+            _hash = (31 * config.hashCode() + text.hashCode()) * 2 + (snippet ? 1 : 0);
+        }
+
+        @Override public int hashCode () {
+            return _hash;
+        }
+
+        @Override public boolean equals (Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key okey = (Key)other;
+            return _hash == okey._hash && snippet == okey.snippet && text.equals(okey.text) &&
+                config.equals(okey.config);
+        }
+
+        protected final int _hash;
+    }
+
+    protected final int _maxEntries, _maxWeight;
+    protected int _weight, _hits, _misses, _evictions;
+
+    /** Our cached renders, in access order (least recently used first). */
+    protected final LinkedHashMap<Key, String> _renders =
+        new LinkedHashMap<Key, String>(16, 0.75f, true);
+}
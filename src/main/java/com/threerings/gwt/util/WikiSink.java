@@ -0,0 +1,128 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.gwt.util;
+
+/**
+ * Receives the structure of a wiki document from {@link WikiParser} as a series of events, which
+ * allows wiki text to be turned into something other than XHTML (plain text excerpts, search
+ * index tokens, DOM nodes) without rendering and re-parsing HTML. See {@link
+ * WikiParser#parse(String,WikiSink)}. The parser's own XHTML output is produced by one such sink.
+ *
+ * <p> Start and end events are always properly nested. Block events (paragraphs, headings, lists,
+ * tables, floats, rules and preformatted text) only occur at the top level of a document, inside
+ * list items or inside the cells of tables started with {@code blockCells} set; the exception is
+ * preformatted text, which may also interrupt a paragraph or any other inline context. </p>
+ *
+ * <p> Text is reported as it appears in the wiki source, with any character entity references
+ * (such as {@code &amp;mdash;}) intact. Sinks that do not produce HTML can decode them with {@link
+ * WikiUtils#unescapeHTML}. </p>
+ */
+public interface WikiSink
+{
+    /** Inline formatting styles, in the order of their markup: {@code ** // __ ## --}. */
+    enum Format { STRONG, EMPHASIS, UNDERLINE, MONOSPACE, STRIKE };
+
+    /** List styles, in the order of their markup: {@code * - # > : !}. */
+    enum ListType { BULLET, DASH, NUMBERED, QUOTE, INDENT, CENTER };
+
+    /** Starts a paragraph. */
+    void startParagraph ();
+
+    /** Ends the current paragraph. */
+    void endParagraph ();
+
+    /** Starts a heading of the supplied level, which ranges from 1 to 6. */
+    void startHeading (int level);
+
+    /** Ends the current heading. */
+    void endHeading (int level);
+
+    /** Starts a list, which always has at least one item. */
+    void startList (ListType type);
+
+    /** Ends the current list. */
+    void endList (ListType type);
+
+    /** Starts an item of the current list. */
+    void startListItem ();
+
+    /** Ends the current list item. */
+    void endListItem ();
+
+    /**
+     * Starts a table. The cells of tables with {@code blockCells} set (created with the {@code
+     * {|} markup) may contain blocks; those of other tables contain only inline content.
+     */
+    void startTable (boolean blockCells);
+
+    /** Ends the current table. */
+    void endTable ();
+
+    /** Starts a row of the current table. */
+    void startTableRow ();
+
+    /** Ends the current table row. */
+    void endTableRow ();
+
+    /** Starts a (header) cell spanning the supplied number of columns. */
+    void startTableCell (boolean header, int colspan);
+
+    /** Ends the current table cell. */
+    void endTableCell ();
+
+    /** Starts a block floated to the left or right of the text that follows it. */
+    void startFloat (boolean left);
+
+    /** Ends the current float. */
+    void endFloat ();
+
+    /** Reports a horizontal rule. */
+    void horizontalRule ();
+
+    /** Reports a block of preformatted text, which is not to be interpreted further. */
+    void preformatted (String text);
+
+    /** Starts a run of formatted inline content. */
+    void startFormat (Format format);
+
+    /** Ends the current run of formatted content. */
+    void endFormat (Format format);
+
+    /** Reports some text. */
+    void text (String text);
+
+    /** Reports inline text that is not to be interpreted further. */
+    void nowiki (String text);
+
+    /** Reports inline code. */
+    void code (String text);
+
+    /** Reports a forced line break. */
+    void lineBreak ();
+
+    /** Reports a link to the supplied (absolute or wiki-internal) URI. */
+    void link (String uri, String text);
+
+    /** Reports an image with the supplied (absolute or wiki-internal) URI. */
+    void image (String uri, String text);
+}
@@ -22,8 +22,6 @@
 package com.threerings.gwt.util;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Used by {@link WikiParser}.
@@ -32,20 +30,105 @@ import java.util.Map;
  */
 public class WikiUtils
 {
+    /**
+     * Returns true if the supplied string is a URI of the form
+     * {@code pcol://(username:password@)hostname(:port)(/pathseg(/pathseg))(/)(?query)(#hash)}
+     * and contains no whitespace. This was once implemented with regular expressions; it is now
+     * recognized by hand, without allocation, but accepts the same strings (save that whitespace
+     * is now rejected even in strings that also contain line separators).
+     */
     public static boolean isURI (String uri) {
-        return !uri.matches(".*\\s.*") && uri.matches(URL_REGEX);
+        int length=uri.length(), lastBreak=-1;
+        for (int i=0; i<length; i++) {
+            char c=uri.charAt(i);
+            if (isWhitespace(c)) return false;
+            if (isLineBreak(c)) lastBreak=i;
+        }
+        int start=skipScheme(uri, length);
+        if (start<0) return false;
+        if (isHostEtc(uri, start, length, lastBreak)) return true;
+        // (username:password@) - the username ends at the first ':', the password at the next '@'
+        int colon=start;
+        while (colon<length && uri.charAt(colon)!=':' && uri.charAt(colon)!='@') colon++;
+        if (colon==start || colon>=length || uri.charAt(colon)!=':') return false;
+        int at=uri.indexOf('@', colon+1);
+        return at>colon+1 && isHostEtc(uri, at+1, length, lastBreak);
     }
 
-    private final static String URL_REGEX =
-        "\\w+://" +            // pcol://
-        "([^:@]+(:[^@]+)@)?" + // (username(:password)@)
-        "[^:/]+(:\\d+)?" +     // hostname(:port)
-        "(/[^/#?]+)*/?" +      // (/pathseg(/pathseg))(/)
-        "(\\?[^#]*)?(#.*)?";   // (?query)(#hash)
-
     public static boolean isAbsoluteURI (String uri) {
         // TODO: make this more sophisticated if needed
-        return uri.matches("\\w+://.*");
+        int length=uri.length(), start=skipScheme(uri, length);
+        if (start<0) return false;
+        for (int i=start; i<length; i++) {
+            char c=uri.charAt(i);
+            if (c=='\n' || c=='\r' || isLineBreak(c)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the position following the {@code pcol://} prefix of the supplied URI or -1 if it
+     * has no such prefix.
+     */
+    private static int skipScheme (String uri, int length) {
+        int p=0;
+        while (p<length && isWordChar(uri.charAt(p))) p++;
+        return (p>0 && uri.startsWith("://", p)) ? p+3 : -1;
+    }
+
+    /**
+     * Returns true if {@code uri[start, end)} is {@code hostname(:port)(path)(?query)(#hash)}.
+     * The hostname may contain anything but ':' and '/', so a '?' or '#' in it may instead start
+     * the query or hash; we try each such split point as well as the full hostname.
+     */
+    private static boolean isHostEtc (String uri, int start, int end, int lastBreak) {
+        if (start>=end || uri.charAt(start)==':' || uri.charAt(start)=='/') return false;
+        int p=start+1;
+        for (; p<end; p++) {
+            char c=uri.charAt(p);
+            if (c==':' || c=='/') break;
+            if ((c=='?' || c=='#') && isQueryEtc(uri, p, end, lastBreak)) return true;
+        }
+        // (:port)
+        if (p<end && uri.charAt(p)==':') {
+            int digits=++p;
+            while (p<end && uri.charAt(p)>='0' && uri.charAt(p)<='9') p++;
+            if (p==digits) return false;
+        }
+        // (/pathseg(/pathseg))(/)
+        while (p<end && uri.charAt(p)=='/') {
+            int seg=++p;
+            while (p<end && "/#?".indexOf(uri.charAt(p))<0) p++;
+            if (p==seg) break; // a trailing '/' (or an empty segment, which will fail below)
+        }
+        return isQueryEtc(uri, p, end, lastBreak);
+    }
+
+    /**
+     * Returns true if {@code uri[start, end)} is {@code (?query)(#hash)}.
+     */
+    private static boolean isQueryEtc (String uri, int start, int end, int lastBreak) {
+        int p=start;
+        if (p<end && uri.charAt(p)=='?') {
+            while (p<end && uri.charAt(p)!='#') p++;
+        }
+        // the hash may contain anything other than a line break
+        return p==end || (uri.charAt(p)=='#' && p>lastBreak);
+    }
+
+    /** Matches regexp {@code \w}. */
+    private static boolean isWordChar (char c) {
+        return isLatinLetterOrDigit(c) || c=='_';
+    }
+
+    /** Matches regexp {@code \s}. */
+    private static boolean isWhitespace (char c) {
+        return c==' ' || c=='\t' || c=='\n' || c=='\u000B' || c=='\f' || c=='\r';
+    }
+
+    /** Matches the line terminators not matched by regexp {@code .} that are not whitespace. */
+    private static boolean isLineBreak (char c) {
+        return c=='\u0085' || c=='\u2028' || c=='\u2029';
     }
 
     public static boolean isUrlChar(char c) {
@@ -69,102 +152,173 @@ public class WikiUtils
      */
     public static String preprocessWikiText(String text) {
         if (text==null) return "";
-        text=text.trim();
-        int length=text.length();
-        char[] chars=new char[length];
-        text.getChars(0, length, chars, 0);
-        StringBuilder sb=new StringBuilder();
+        char[] chars=new char[text.length()];
+        return new String(chars, 0, preprocessWikiText(text, chars));
+    }
+
+    /**
+     * Filters text exactly as {@link #preprocessWikiText(String)} does, but in a single pass and
+     * into the supplied buffer, which must be at least as long as the text and may be reused from
+     * call to call.
+     *
+     * @return the length of the filtered text.
+     */
+    public static int preprocessWikiText(String text, char[] dest) {
+        if (text==null) return 0;
+        int start=0, end=text.length();
+        while (start<end && text.charAt(start)<=' ') start++;
+        while (end>start && text.charAt(end-1)<=' ') end--;
+        int length=0, lineStart=0;
         boolean blankLine=true;
-        StringBuilder spaces=new StringBuilder();
-        for (int p=0; p<length; p++) {
-            char c=chars[p];
-            if (c=='\r') { // "\r\n" -> "\n"; then "\r" -> "\n"
-                if (p+1<length && chars[p+1]=='\n') p++;
-                sb.append('\n');
-                // discard spaces if there is nothing else on the line
-                spaces.delete(0, spaces.length());
-                blankLine=true;
-            }
-            else if (c=='\n') {
-                sb.append(c);
+        for (int p=start; p<end; p++) {
+            char c=text.charAt(p);
+            if (c=='\r' || c=='\n') { // "\r\n" -> "\n"; then "\r" -> "\n"
+                if (c=='\r' && p+1<end && text.charAt(p+1)=='\n') p++;
                 // discard spaces if there is nothing else on the line
-                spaces.delete(0, spaces.length());
+                if (blankLine) length=lineStart;
+                dest[length++]='\n';
+                lineStart=length;
                 blankLine=true;
             }
-            else if (blankLine) {
-                if (c<=' '/* && c!='\n'*/) {
-                    spaces.append(c);
-                }
-                else {
-                    // working around GWT issue
-                    // http://code.google.com/p/google-web-toolkit/issues/detail?id=4097
-                    CharSequence cs = spaces;
-                    sb.append(cs);
-                    blankLine=false;
-                    sb.append(c);
-                }
-            }
             else {
-                sb.append(c);
+                if (c>' ') blankLine=false;
+                dest[length++]=c;
             }
         }
-        return sb.toString();
+        return length;
     }
 
     public static String escapeHTML (String s) {
         if (s == null) return "";
-        StringBuffer sb = new StringBuffer(s.length()+100);
-        Map<Character,String> unent = getHtmlUnEntities();
-        for (int ii = 0, ll = s.length(); ii < ll; ii++) {
-            char ch = s.charAt(ii);
-            String ent = unent.get(ch);
-            if (ent != null) {
-                sb.append("&").append(ent).append(";");
-            } else {
-                sb.append(ch);
-            }
-        }
+        int ll = s.length(), ii = 0;
+        while (ii < ll && getEscape(s.charAt(ii)) == null) ii++;
+        if (ii == ll) return s; // nothing to escape
+        StringBuilder sb = new StringBuilder(ll+100);
+        sb.append(s, 0, ii);
+        escapeHTML(s, ii, ll, sb);
         return sb.toString();
     }
 
+    /**
+     * Escapes the characters in {@code s[start, end)} and appends them to {@code out}.
+     */
+    public static void escapeHTML (CharSequence s, int start, int end, StringBuilder out) {
+        for (int ii = start; ii < end; ii++) {
+            appendEscaped(s.charAt(ii), out);
+        }
+    }
+
     public static String unescapeHTML(String value) {
         if (value==null) return null;
         if (value.indexOf('&')<0) return value;
-        Map<String,Character> ent = getHtmlEntities();
-        StringBuffer sb=new StringBuffer();
-        final int length=value.length();
-        for (int i=0; i<length; i++) {
-            char c=value.charAt(i);
+        StringBuilder sb=new StringBuilder(value.length());
+        unescapeHTML(value, 0, value.length(), sb);
+        return sb.toString();
+    }
+
+    /**
+     * Unescapes the entities in {@code s[start, end)} and appends the result to {@code out}.
+     */
+    public static void unescapeHTML(CharSequence s, int start, int end, StringBuilder out) {
+        decodeHTML(s, start, end, out, false);
+    }
+
+    /**
+     * Appends {@code escapeHTML(unescapeHTML(s[start, end)))} to {@code out} in a single pass.
+     */
+    public static void reescapeHTML(CharSequence s, int start, int end, StringBuilder out) {
+        decodeHTML(s, start, end, out, true);
+    }
+
+    private static void decodeHTML (
+        CharSequence s, int start, int end, StringBuilder out, boolean escape) {
+        for (int i=start; i<end; i++) {
+            char c=s.charAt(i);
             if (c=='&') {
-                char ce=0;
-                int i1=value.indexOf(';', i+1);
-                if (i1>i && i1-i<=12) {
-                    if (value.charAt(i+1)=='#') {
-                        if (value.charAt(i+2)=='x') {
-                            ce=(char)atoi(value.substring(i+3, i1), 16);
-                        }
-                        else {
-                            ce=(char)atoi(value.substring(i+2, i1));
-                        }
-                    }
-                    else {
-                        synchronized (ent) {
-                            Character ceObj=ent.get(value.substring(i+1, i1));
-                            ce=ceObj==null?0:ceObj.charValue();
-                        }
-                    }
-                }
+                // entities are at most 12 characters long, including the '&' and ';'
+                int i1=i+1, limit=Math.min(end, i+13);
+                while (i1<limit && s.charAt(i1)!=';') i1++;
+                char ce=(i1<limit) ? decodeEntity(s, i+1, i1) : 0;
                 if (ce>0) {
-                    sb.append(ce);
+                    c=ce;
                     i=i1;
                 }
-                else sb.append(c);
-            }
-            else {
-                sb.append(c);
             }
+            if (escape) appendEscaped(c, out);
+            else out.append(c);
+        }
+    }
+
+    /**
+     * Decodes the entity named by {@code s[start, end)} (the text between '&amp;' and ';').
+     *
+     * @return the decoded character or 0 if the entity is not recognized.
+     */
+    private static char decodeEntity (CharSequence s, int start, int end) {
+        if (start<end && s.charAt(start)=='#') {
+            if (start+1<end && s.charAt(start+1)=='x') return (char)atoi(s, start+2, end, 16);
+            return (char)atoi(s, start+1, end, 10);
+        }
+        int length=end-start;
+        if (length==0 || length>MAX_ENTITY_NAME_LENGTH) return 0;
+        for (int slot=hashEntity(s, start, end); ENTITY_SLOTS[slot]!=0;
+             slot=(slot+1)&(ENTITY_SLOTS.length-1)) {
+            int idx=ENTITY_SLOTS[slot]-1;
+            String name=ENTITY_NAMES[idx];
+            if (name.length()!=length) continue;
+            int i=0;
+            while (i<length && name.charAt(i)==s.charAt(start+i)) i++;
+            if (i==length) return ENTITY_CHARS.charAt(idx);
+        }
+        return 0;
+    }
+
+    private static int hashEntity (CharSequence s, int start, int end) {
+        int hash=0;
+        for (int i=start; i<end; i++) hash=31*hash+s.charAt(i);
+        return (hash^(hash>>>7))&(ENTITY_SLOTS.length-1);
+    }
+
+    /**
+     * Parses {@code s[start, end)} as {@link Integer#parseInt(String,int)} would, but without
+     * creating a substring or an exception for text that is not a number.
+     *
+     * @return the parsed value, or 0 if the text is not a valid integer.
+     */
+    private static int atoi (CharSequence s, int start, int end, int radix) {
+        if (start<end && (s.charAt(start)=='-' || s.charAt(start)=='+')) {
+            return atoi(s, start+1, end, radix, s.charAt(start)=='-');
+        }
+        return atoi(s, start, end, radix, false);
+    }
+
+    private static int atoi (CharSequence s, int start, int end, int radix, boolean negative) {
+        if (start>=end) return 0;
+        long limit=negative ? -(long)Integer.MIN_VALUE : Integer.MAX_VALUE, value=0;
+        for (int i=start; i<end; i++) {
+            int digit=Character.digit(s.charAt(i), radix);
+            if (digit<0) return 0;
+            value=value*radix+digit;
+            if (value>limit) return 0;
+        }
+        return (int)(negative ? -value : value);
+    }
+
+    private static String getEscape (char ch) {
+        if (ch < LATIN1_ESCAPES.length) return LATIN1_ESCAPES[ch];
+        if (ch >= PUNCT_ESCAPES_START && ch < PUNCT_ESCAPES_START+PUNCT_ESCAPES.length) {
+            return PUNCT_ESCAPES[ch-PUNCT_ESCAPES_START];
+        }
+        return null;
+    }
+
+    private static void appendEscaped (char ch, StringBuilder out) {
+        String escape = getEscape(ch);
+        if (escape != null) {
+            out.append(escape);
+        } else {
+            out.append(ch);
         }
-        return sb.toString();
     }
 
     static public int atoi(String s) {
@@ -223,30 +377,89 @@ public class WikiUtils
         if (s==null) return "";
         StringBuilder sb=new StringBuilder(s.length()+100);
         final int length=s.length();
-        final int translitTableLength=translitTable.length();
+        for (int i=0; i<length; i++) {
+            translit(s.charAt(i), sb);
+        }
+        return sb.toString();
+    }
 
+    /**
+     * Appends an anchor id made from the supplied heading text to {@code out}, in a single pass:
+     * markup tags are removed (if {@code stripTags}), the text is transliterated and trimmed, runs
+     * of whitespace become underscores and characters other than ASCII letters, digits, '_' and
+     * '-' are dropped.
+     */
+    public static void appendAnchorId (String text, boolean stripTags, StringBuilder out) {
+        final int length=text.length();
+        int gt=-1, nl=-1; // the next '>' and line end (or length) after the tag being checked
+        int pending=0; // the underscores for whitespace that is dropped if trailing
+        boolean started=false, inSpace=false;
         for (int i=0; i<length; i++) {
-            char ch=s.charAt(i);
-            //System.err.println("ch="+(int)ch);
-
-            if ((ch>='\ufffd' && ch<='\ufffd') || (ch>='\ufffd' && ch<='\ufffd') ||
-                ch=='\ufffd' || ch=='\ufffd') {
-                int idx=translitTable.indexOf(ch);
-                char c;
-                if (idx>=0) {
-                    for (idx++; idx<translitTableLength; idx++) {
-                        c=translitTable.charAt(idx);
-                        if ((c>='\ufffd' && c<='\ufffd') || (c>='\ufffd' && c<='\ufffd') ||
-                            c=='\ufffd' || c=='\ufffd') break;
-                        sb.append(c);
-                    }
+            char ch=text.charAt(i);
+            if (stripTags && ch=='<') { // drop "<.+?>"
+                if (gt<i+2) gt=indexOf(text, '>', i+2);
+                if (nl<i+1) nl=indexOfLineEnd(text, i+1);
+                if (gt<length && nl>gt) {
+                    i=gt;
+                    continue;
                 }
             }
-            else {
-                sb.append(ch);
+            if (ch<=' ') { // trimmed if leading or trailing
+                boolean space=(ch==' ' || ch=='\t' || ch=='\n' || ch=='\u000B' || ch=='\f' ||
+                               ch=='\r');
+                if (space && !inSpace && started) pending++;
+                inSpace=space;
+                continue;
             }
+            for (; pending>0; pending--) out.append('_');
+            started=true;
+            inSpace=false;
+            int mark=out.length();
+            translit(ch, out);
+            // drop what isn't valid in an id
+            int j=mark;
+            for (int k=mark, end=out.length(); k<end; k++) {
+                char c=out.charAt(k);
+                if ((c>='a' && c<='z') || (c>='A' && c<='Z') || (c>='0' && c<='9') ||
+                    c=='_' || c=='-') out.setCharAt(j++, c);
+            }
+            out.setLength(j);
         }
-        return sb.toString();
+    }
+
+    private static void translit(char ch, StringBuilder sb) {
+        final int translitTableLength=translitTable.length();
+        if ((ch>='\ufffd' && ch<='\ufffd') || (ch>='\ufffd' && ch<='\ufffd') ||
+            ch=='\ufffd' || ch=='\ufffd') {
+            int idx=translitTable.indexOf(ch);
+            char c;
+            if (idx>=0) {
+                for (idx++; idx<translitTableLength; idx++) {
+                    c=translitTable.charAt(idx);
+                    if ((c>='\ufffd' && c<='\ufffd') || (c>='\ufffd' && c<='\ufffd') ||
+                        c=='\ufffd' || c=='\ufffd') break;
+                    sb.append(c);
+                }
+            }
+        }
+        else {
+            sb.append(ch);
+        }
+    }
+
+    private static int indexOf (String s, char c, int from) {
+        int idx=s.indexOf(c, from);
+        return (idx<0) ? s.length() : idx;
+    }
+
+    /** Finds the next character not matched by '.' in a regular expression. */
+    private static int indexOfLineEnd (String s, int from) {
+        int length=s.length();
+        for (int i=from; i<length; i++) {
+            char c=s.charAt(i);
+            if (c=='\n' || c=='\r' || c=='\u0085' || c=='\u2028' || c=='\u2029') return i;
+        }
+        return length;
     }
 
     public static String emptyToNull(String s) { return "".equals(s)?null:s; }
@@ -254,45 +467,38 @@ public class WikiUtils
     public static String noNull(String s, String val) { return s==null?val:s; }
     public static boolean isEmpty(String s) { return (s == null || s.length() == 0); }
 
-    private static synchronized Map<String,Character> getHtmlEntities () {
-        if (_entities == null) {
-            _entities = new HashMap<String, Character>();
-            _entities.put("lt", '<');
-            _entities.put("gt", '>');
-            _entities.put("amp", '&');
-            _entities.put("quot", '"');
-            _entities.put("apos", '\'');
-            _entities.put("nbsp", '\u00A0');
-            _entities.put("shy", '\u00AD');
-            _entities.put("copy", '\u00A9');
-            _entities.put("reg", '\u00AE');
-            _entities.put("trade", '\u2122');
-            _entities.put("mdash", '\u2014');
-            _entities.put("ndash", '\u2013');
-            _entities.put("ldquo", '\u201C');
-            _entities.put("rdquo", '\u201D');
-            _entities.put("euro", '\u20AC');
-            _entities.put("middot", '\u00B7');
-            _entities.put("bull", '\u2022');
-            _entities.put("laquo", '\u00AB');
-            _entities.put("raquo", '\u00BB');
-        }
-        return _entities;
-    }
+    /** The entities we escape and unescape and the characters to which they correspond. */
+    private static final String[] ENTITY_NAMES = {
+        "lt", "gt", "amp", "quot", "apos", "nbsp", "shy", "copy", "reg", "trade", "mdash", "ndash",
+        "ldquo", "rdquo", "euro", "middot", "bull", "laquo", "raquo" };
+    private static final String ENTITY_CHARS = "<>&\"'\u00A0\u00AD\u00A9\u00AE\u2122\u2014\u2013" +
+        "\u201C\u201D\u20AC\u00B7\u2022\u00AB\u00BB";
+    private static final int MAX_ENTITY_NAME_LENGTH = 6;
+
+    /** Maps characters to their escaped form; our entities all lie in these two ranges. */
+    private static final String[] LATIN1_ESCAPES = new String[256];
+    private static final char PUNCT_ESCAPES_START = '\u2000';
+    private static final String[] PUNCT_ESCAPES = new String[0x200];
 
-    private static synchronized Map<Character,String> getHtmlUnEntities () {
-        if (_unentities == null) {
-            _unentities = new HashMap<Character, String>();
-            for (Map.Entry<String, Character> entry : getHtmlEntities().entrySet()) {
-                _unentities.put(entry.getValue(), entry.getKey());
+    /** An open addressed hash table mapping entity names to (index+1) in {@link #ENTITY_NAMES}. */
+    private static final int[] ENTITY_SLOTS = new int[64];
+
+    static {
+        for (int ii = 0; ii < ENTITY_NAMES.length; ii++) {
+            String name = ENTITY_NAMES[ii];
+            char ch = ENTITY_CHARS.charAt(ii);
+            String escape = "&" + name + ";";
+            if (ch < LATIN1_ESCAPES.length) {
+                LATIN1_ESCAPES[ch] = escape;
+            } else {
+                PUNCT_ESCAPES[ch-PUNCT_ESCAPES_START] = escape;
             }
+            int slot = hashEntity(name, 0, name.length());
+            while (ENTITY_SLOTS[slot] != 0) slot = (slot+1) & (ENTITY_SLOTS.length-1);
+            ENTITY_SLOTS[slot] = ii+1;
         }
-        return _unentities;
     }
 
-    private static Map<String,Character> _entities;
-    private static Map<Character,String> _unentities;
-
     private static final String translitTable =
         "\ufffda\ufffdb\ufffdv\ufffdg\ufffdd\ufffde\ufffde\ufffdzh\ufffdz\ufffdi\ufffdy\ufffdk" +
         "\ufffdl\ufffdm\ufffdn\ufffdo\ufffdp\ufffdr\ufffds\ufffdt\ufffdu\ufffdf\ufffdh\ufffdts" +
@@ -0,0 +1,75 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.gwt.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.threerings.gwt.util.WikiParser;
+
+/**
+ * Tests the {@link WikiBatchRenderer} class.
+ */
+public class WikiBatchRendererTest
+{
+    @Test public void testRenderAll ()
+        throws Exception
+    {
+        List<String> documents = new ArrayList<String>();
+        for (int ii = 0; ii < 500; ii++) {
+            StringBuilder buf = new StringBuilder("= Document " + ii + " =\n");
+            for (int ll = 0; ll < ii % 17; ll++) {
+                buf.append("* item **").append(ll).append("** [[http://foo.com/").append(ll);
+                buf.append("|link]]\n");
+            }
+            documents.add(buf.toString());
+        }
+
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try {
+            WikiBatchRenderer renderer = new WikiBatchRenderer(exec, 4);
+            List<String> results = renderer.renderAll(documents);
+            assertEquals(documents.size(), results.size());
+            for (int ii = 0; ii < documents.size(); ii++) {
+                assertEquals(WikiParser.render(documents.get(ii)), results.get(ii));
+            }
+
+            final int[] next = { 0 };
+            WikiBatchRenderer.Stats stats = renderer.renderAll(
+                documents, new WikiBatchRenderer.Callback() {
+                public void rendered (int index, String wikiText, String html) {
+                    assertEquals(next[0]++, index);
+                }
+            });
+            assertEquals(documents.size(), next[0]);
+            assertEquals(documents.size(), stats.documents);
+            assertTrue(stats.outputChars > stats.inputChars);
+        } finally {
+            exec.shutdown();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.gwt.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link IndexedDataModel} class.
+ */
+public class IndexedDataModelTest
+{
+    @Test public void testViews ()
+    {
+        IndexedDataModel<String, String> model = IndexedDataModel.newModel(
+            new ArrayList<String>(), KEY);
+        IndexedDataModel<String, String>.View all = model.createView(null, null);
+        IndexedDataModel<String, String>.View even = model.createView(EVEN, null);
+        IndexedDataModel<String, String>.View sorted = model.createView(EVEN, BY_VALUE);
+        IndexedDataModel<String, String>.View refined = model.createView(null, BY_VALUE);
+        refined.refineFilter(EVEN);
+
+        Random rando = new Random(42);
+        for (int ii = 0; ii < 2000; ii++) {
+            int size = model.getItemCount();
+            switch (size == 0 ? 0 : rando.nextInt(3)) {
+            case 0:
+                model.addItem(rando.nextInt(size+1), "k" + ii + "=" + rando.nextInt(100));
+                break;
+            case 1:
+                String key = KEY.apply(model._items.get(rando.nextInt(size)));
+                model.updateItem(key + "=" + rando.nextInt(100));
+                break;
+            case 2:
+                model.removeItem(model._items.get(rando.nextInt(size)));
+                break;
+            }
+
+            for (int idx = 0; idx < model.getItemCount(); idx++) {
+                String item = model._items.get(idx);
+                assertEquals(idx, model.indexOfKey(KEY.apply(item)));
+                assertEquals(item, model.getItem(KEY.apply(item)));
+            }
+            assertEquals(model._items, fetch(all));
+            assertEquals(filter(model._items, null), fetch(even));
+            assertEquals(filter(model._items, BY_VALUE), fetch(sorted));
+            assertEquals(filter(model._items, BY_VALUE), fetch(refined));
+        }
+        assertEquals(-1, model.indexOfKey("k-1"));
+        assertNull(model.getItem("k-1"));
+
+        // changing the order or filter rebuilds the view, and disposed views are left alone
+        sorted.setComparator(null);
+        assertEquals(filter(model._items, null), fetch(sorted));
+        even.setFilter(null);
+        assertEquals(model._items, fetch(even));
+        even.dispose();
+        model.removeItem(model._items.get(0));
+        assertEquals(model.getItemCount()+1, even.getItemCount());
+    }
+
+    @Test public void testPages ()
+    {
+        final List<String> items = new ArrayList<String>();
+        for (int ii = 0; ii < 10; ii++) {
+            items.add("k" + ii + "=" + ii);
+        }
+        IndexedDataModel<String, String> model = IndexedDataModel.newModel(items, KEY);
+        final List<List<String>> pages = new ArrayList<List<String>>();
+        AsyncCallback<List<String>> callback = new AsyncCallback<List<String>>() {
+            public void onSuccess (List<String> result) {
+                pages.add(result);
+            }
+            public void onFailure (Throwable cause) {
+                fail(cause.toString());
+            }
+        };
+        model.doFetchRows(8, 5, callback);
+        model.doFetchRows(10, 5, callback);
+        model.createView(EVEN, null).doFetchRows(1, 2, callback);
+        assertEquals("[[k8=8, k9=9], [], [k2=2, k4=4]]", pages.toString());
+        try {
+            pages.get(0).remove(0);
+            fail("Pages must be read-only");
+        } catch (UnsupportedOperationException uoe) {
+            // expected
+        }
+    }
+
+    protected static List<String> filter (List<String> items, Comparator<String> comp)
+    {
+        List<String> matches = new ArrayList<String>();
+        for (String item : items) {
+            if (EVEN.apply(item)) {
+                matches.add(item);
+            }
+        }
+        if (comp != null) {
+            Collections.sort(matches, comp);
+        }
+        return matches;
+    }
+
+    protected static List<String> fetch (DataModel<String> model)
+    {
+        final List<String> items = new ArrayList<String>();
+        model.doFetchRows(0, model.getItemCount(), new AsyncCallback<List<String>>() {
+            public void onSuccess (List<String> result) {
+                items.addAll(result);
+            }
+            public void onFailure (Throwable cause) {
+                fail(cause.toString());
+            }
+        });
+        return items;
+    }
+
+    protected static int value (String item)
+    {
+        return Integer.parseInt(item.substring(item.indexOf('=')+1));
+    }
+
+    protected static final Function<String, String> KEY = new Function<String, String>() {
+        public String apply (String item) {
+            return item.substring(0, item.indexOf('='));
+        }
+    };
+
+    protected static final Predicate<String> EVEN = new Predicate<String>() {
+        public boolean apply (String item) {
+            return value(item) % 2 == 0;
+        }
+    };
+
+    protected static final Comparator<String> BY_VALUE = new Comparator<String>() {
+        public int compare (String a, String b) {
+            int cmp = value(a) - value(b);
+            return (cmp != 0) ? cmp : a.compareTo(b);
+        }
+    };
+}
@@ -0,0 +1,325 @@
+//
+// $Id$
+//
+// OOO GWT Utils - utilities for creating GWT applications
+// Copyright (C) 2009-2010 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/ooo-gwt-utils/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.gwt.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ServiceBackedDataModel} class.
+ */
+public class ServiceBackedDataModelTest
+{
+    @Test public void testPageCache ()
+    {
+        TestModel model = new TestModel(100);
+        model.setCachedPages(2);
+        assertEquals("[0, 1, 2]", fetch(model, 0, 3));
+        assertEquals("[3, 4, 5]", fetch(model, 3, 3));
+        assertEquals("[0, 1, 2]", fetch(model, 0, 3));
+        assertEquals("[3, 4, 5]", fetch(model, 3, 3));
+        assertEquals(2, model.requests.size());
+
+        // the least recently used page is evicted
+        fetch(model, 6, 3);
+        fetch(model, 0, 3);
+        assertEquals(4, model.requests.size());
+        fetch(model, 6, 3);
+        assertEquals(4, model.requests.size());
+
+        // changes to the model discard the pages other than the displayed one
+        model.removeItem(7);
+        assertEquals("[6, 7, 8]", fetch(model, 6, 3)); // no longer a full page, so refetched
+        assertEquals(5, model.requests.size());
+        fetch(model, 0, 3);
+        assertEquals(6, model.requests.size());
+        model.reset();
+        fetch(model, 0, 3);
+        assertEquals("0+3 count", model.requests.get(6));
+    }
+
+    @Test public void testPrefetch ()
+    {
+        TestModel model = new TestModel(10);
+        model.setPrefetch(true);
+        model.deferred = true;
+        List<String> results = new ArrayList<String>();
+        model.doFetchRows(3, 3, collect(results));
+        model.respond(0);
+        assertEquals("[[3, 4, 5]]", results.toString());
+        assertEquals("[3+3 count, 6+3, 0+3]", model.requests.toString());
+        model.respond(0);
+        model.respond(0);
+
+        // the prefetched pages are served from the cache and prefetch their neighbors in turn
+        model.doFetchRows(6, 3, collect(results));
+        model.doFetchRows(0, 3, collect(results));
+        assertEquals("[[3, 4, 5], [6, 7, 8], [0, 1, 2]]", results.toString());
+        assertEquals("[3+3 count, 6+3, 0+3, 9+3]", model.requests.toString());
+
+        // prefetches that complete after the model changes are ignored
+        model.prependItem(-1);
+        model.respond(0);
+        model.doFetchRows(9, 3, collect(results));
+        model.respond(0);
+        assertEquals("[3+3 count, 6+3, 0+3, 9+3, 9+3, 6+3]", model.requests.toString());
+    }
+
+    @Test public void testCoalescing ()
+    {
+        TestModel model = new TestModel(100);
+        fetch(model, 0, 3);
+        model.deferred = true;
+
+        // a user clicks next three times, and the second page is requested twice
+        List<String> results = new ArrayList<String>();
+        model.doFetchRows(3, 3, collect(results));
+        model.doFetchRows(3, 3, collect(results));
+        model.doFetchRows(6, 3, collect(results));
+        model.doFetchRows(9, 3, collect(results));
+        assertEquals("[0+3 count, 3+3, 6+3, 9+3]", model.requests.toString());
+
+        // only the last page requested is delivered, whatever order the responses arrive in
+        model.respond(2);
+        model.respond(0);
+        model.respond(0);
+        assertEquals("[[9, 10, 11]]", results.toString());
+        assertEquals(9, model._pageOffset);
+
+        // but the superseded pages are cached
+        model.doFetchRows(3, 3, collect(results));
+        assertEquals("[[9, 10, 11], [3, 4, 5]]", results.toString());
+        assertEquals(4, model.requests.size());
+
+        // a cached page supersedes pages still being fetched
+        model.doFetchRows(12, 3, collect(results));
+        model.doFetchRows(9, 3, collect(results));
+        model.respond(0);
+        assertEquals("[[9, 10, 11], [3, 4, 5], [9, 10, 11]]", results.toString());
+        assertEquals(9, model._pageOffset);
+
+        // a page requested before a reset is not delivered after it
+        model.doFetchRows(15, 3, collect(results));
+        model.reset();
+        model.respond(0);
+        assertEquals(3, results.size());
+        assertEquals(0, model._pageOffset);
+    }
+
+    @Test public void testDeferredCount ()
+    {
+        TestModel model = new TestModel(10);
+        model.setDeferredCount(true);
+        model.deferred = true;
+        final List<Integer> counts = new ArrayList<Integer>();
+        model.getCountValue().addListener(new Value.Listener<Integer>() {
+            public void valueChanged (Integer count) {
+                counts.add(count);
+            }
+        });
+
+        // the count is unknown, so a pager requests an extra item
+        assertEquals(-1, model.getItemCount());
+        List<String> results = new ArrayList<String>();
+        model.doFetchRows(0, 4, collect(results));
+        assertEquals("[0+4, count]", model.requests.toString());
+        model.respond(0);
+        assertEquals("[[0, 1, 2, 3]]", results.toString());
+        assertEquals(-1, model.getItemCount());
+
+        // the count arrives after the page
+        model.respond(0);
+        assertEquals(10, model.getItemCount());
+        assertEquals("[10]", counts.toString());
+        model.doFetchRows(3, 3, collect(results));
+        model.respond(0);
+        assertEquals("[0+4, count, 3+3]", model.requests.toString());
+
+        // the count value tracks items added and removed
+        model.prependItem(-1);
+        model.removeItem(-1);
+        assertEquals("[10, 11, 10]", counts.toString());
+
+        // a count requested before a reset is ignored
+        model.reset();
+        model.doFetchRows(0, 4, collect(results));
+        model.reset();
+        model.respond(1);
+        assertEquals(-1, model.getItemCount());
+        assertEquals("[10, 11, 10, -1]", counts.toString());
+
+        // a service that can't count is treated like a failure, so the next page tries again
+        model.countless = true;
+        model.respond(0);
+        model.doFetchRows(0, 4, collect(results));
+        model.respond(0);
+        model.respond(0);
+        assertEquals(-1, model.getItemCount());
+        model.doFetchRows(4, 4, collect(results));
+        int size = model.requests.size();
+        assertEquals("[0+4, count, 4+4, count]", model.requests.subList(size - 4, size).toString());
+    }
+
+    @Test public void testCursors ()
+    {
+        CursorModel model = new CursorModel(20, true);
+        assertEquals("[0, 1, 2]", fetch(model, 0, 3));
+        assertEquals("[3, 4, 5]", fetch(model, 3, 3));
+        assertEquals("[12, 13, 14]", fetch(model, 12, 3)); // jumped ahead, so no cursor
+        assertEquals("[15, 16, 17]", fetch(model, 15, 3));
+        assertEquals("[0+3 count, 3+3 @2, 12+3, 15+3 @14]", model.requests.toString());
+
+        // the tokens move with the items
+        model.prependItem(-1);
+        model.setCachedPages(1);
+        assertEquals("[2, 3, 4]", fetch(model, 3, 3));
+        assertEquals("3+3 @1", model.requests.get(4));
+
+        // a service that can't count makes pagers request an extra item
+        model = new CursorModel(7, false);
+        assertEquals(0, model.getItemCount());
+        assertEquals("[0, 1, 2, 3]", fetch(model, 0, 4));
+        assertEquals(-1, model.getItemCount());
+        assertEquals("[3, 4, 5, 6]", fetch(model, 3, 4));
+        assertEquals("[6]", fetch(model, 6, 4));
+        assertEquals("[0+4 count, 3+4 @2, 6+4 @5]", model.requests.toString());
+    }
+
+    protected static String fetch (DataModel<Integer> model, int start, int count)
+    {
+        List<String> results = new ArrayList<String>();
+        model.doFetchRows(start, count, collect(results));
+        assertEquals(1, results.size());
+        return results.get(0);
+    }
+
+    protected static AsyncCallback<List<Integer>> collect (final List<String> results)
+    {
+        return new AsyncCallback<List<Integer>>() {
+            public void onSuccess (List<Integer> result) {
+                results.add(result.toString());
+            }
+            public void onFailure (Throwable cause) {
+                results.add(cause.toString());
+            }
+        };
+    }
+
+    /** Serves the integers from zero, answering requests at once or when told to. */
+    protected static class TestModel extends PagedServiceDataModel<Integer, PagedResult<Integer>>
+    {
+        public List<String> requests = new ArrayList<String>();
+        public List<Runnable> pending = new ArrayList<Runnable>();
+        public boolean deferred, countless;
+
+        public TestModel (int size) {
+            for (int ii = 0; ii < size; ii++) {
+                _data.add(ii);
+            }
+        }
+
+        public void respond (int index) {
+            pending.remove(index).run();
+        }
+
+        @Override protected void callFetchService (
+            final PagedRequest request, final AsyncCallback<PagedResult<Integer>> callback) {
+            requests.add(request.offset + "+" + request.count + (request.needCount ? " count" : ""));
+            final PagedResult<Integer> result = new PagedResult<Integer>();
+            result.total = _data.size();
+            int end = Math.min(request.offset + request.count, _data.size());
+            result.page = new ArrayList<Integer>(
+                _data.subList(Math.min(request.offset, end), end));
+            Runnable response = new Runnable() {
+                public void run () {
+                    callback.onSuccess(result);
+                }
+            };
+            if (deferred) {
+                pending.add(response);
+            } else {
+                response.run();
+            }
+        }
+
+        @Override protected void callCountService (final AsyncCallback<Integer> callback) {
+            requests.add("count");
+            Runnable response = new Runnable() {
+                public void run () {
+                    callback.onSuccess(countless ? null : _data.size());
+                }
+            };
+            if (deferred) {
+                pending.add(response);
+            } else {
+                response.run();
+            }
+        }
+
+        @Override protected void reportFailure (Throwable caught) {
+            fail(caught.toString());
+        }
+
+        protected List<Integer> _data = new ArrayList<Integer>();
+    }
+
+    /** Serves the integers from zero, continuing from the last integer seen if it can. */
+    protected static class CursorModel
+        extends CursorServiceDataModel<Integer, CursorPagedResult<Integer>>
+    {
+        public List<String> requests = new ArrayList<String>();
+
+        public CursorModel (int size, boolean counted) {
+            _size = size;
+            _counted = counted;
+        }
+
+        @Override protected void callFetchService (
+            CursorPagedRequest request, AsyncCallback<CursorPagedResult<Integer>> callback) {
+            requests.add(request.offset + "+" + request.count + (request.needCount ? " count" : "") +
+                         (request.cursor == null ? "" : " @" + request.cursor));
+            int first = (request.cursor == null) ? request.offset :
+                Integer.parseInt(request.cursor) + 1;
+            CursorPagedResult<Integer> result = new CursorPagedResult<Integer>();
+            result.total = _counted ? _size : -1;
+            result.page = new ArrayList<Integer>();
+            result.cursors = new ArrayList<String>();
+            for (int ii = first; ii < Math.min(first + request.count, _size); ii++) {
+                result.page.add(ii);
+                result.cursors.add(String.valueOf(ii));
+            }
+            callback.onSuccess(result);
+        }
+
+        @Override protected void reportFailure (Throwable caught) {
+            fail(caught.toString());
+        }
+
+        protected int _size;
+        protected boolean _counted;
+    }
+}
@@ -21,6 +21,11 @@
 
 package com.threerings.gwt.util;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Function;
+
 import org.junit.*;
 import static org.junit.Assert.*;
 
@@ -68,4 +73,192 @@ public class ValuesTest
         c.update(true);
         assertTrue(or.get());
     }
+
+    @Test public void testGlitchFree ()
+    {
+        // a diamond: both sides of the AND derive from the same value
+        Value<Integer> a = Value.create(1);
+        Value<Boolean> even = a.map(new Function<Integer, Boolean>() {
+            public Boolean apply (Integer value) {
+                return value % 2 == 0;
+            }
+        });
+        // a longer path to the other side, so that it is recomputed after the first
+        @SuppressWarnings("unchecked") // sigh
+        Value<Boolean> odd = Values.and(Values.not(even));
+        @SuppressWarnings("unchecked") // sigh
+        Value<Boolean> both = Values.and(even, odd);
+        List<Boolean> seen = record(both);
+
+        // both sides are consistent by the time the AND is computed, so it never sees true
+        a.update(2);
+        a.update(3);
+        assertEquals("[false, false]", seen.toString());
+    }
+
+    @Test public void testBatch ()
+    {
+        final Value<Boolean> a = Value.create(false);
+        final Value<Boolean> b = Value.create(false);
+        @SuppressWarnings("unchecked") // sigh
+        Value<Boolean> or = Values.or(a, b);
+        final List<Boolean> seenA = record(a), seenOr = record(or);
+
+        Values.batch(new Runnable() {
+            public void run () {
+                a.update(true);
+                b.update(true);
+                a.update(false);
+                // values are updated at once, but listeners hear about it when the batch ends
+                assertFalse(a.get());
+                assertTrue(seenA.isEmpty());
+                Values.batch(new Runnable() {
+                    public void run () {
+                        b.update(false);
+                    }
+                });
+                assertTrue(seenOr.isEmpty());
+            }
+        });
+        assertEquals("[false]", seenA.toString());
+        assertEquals("[false]", seenOr.toString());
+        assertFalse(or.get());
+    }
+
+    @Test public void testUpdateOrder ()
+    {
+        final Value<Integer> x = Value.create(0), y = Value.create(0), z = Value.create(0);
+        final List<String> seen = new ArrayList<String>();
+        log(y, "y", seen);
+        log(z, "z", seen);
+        x.addListener(new Value.Listener<Integer>() {
+            public void valueChanged (Integer value) {
+                y.update(value);
+                z.update(value);
+            }
+        });
+        x.update(1);
+        Values.batch(new Runnable() {
+            public void run () {
+                y.update(2);
+                z.update(2);
+            }
+        });
+        assertEquals("[y1, z1, y2, z2]", seen.toString());
+    }
+
+    @Test public void testListenerFailure ()
+    {
+        final Value<Integer> a = Value.create(0), b = Value.create(0);
+        final List<String> seen = new ArrayList<String>();
+        a.addListener(new Value.Listener<Integer>() {
+            public void valueChanged (Integer value) {
+                throw new IllegalStateException("a");
+            }
+        });
+        log(a, "a", seen);
+        log(b, "b", seen);
+        try {
+            Values.batch(new Runnable() {
+                public void run () {
+                    a.update(1);
+                    b.update(1);
+                }
+            });
+            fail("Listener failure was not reported");
+        } catch (IllegalStateException ise) {
+            assertEquals("a", ise.getMessage());
+        }
+        // the failing value's other listeners miss out, but other values are unaffected
+        assertEquals("[b1]", seen.toString());
+        b.update(2);
+        assertEquals("[b1, b2]", seen.toString());
+    }
+
+    @Test public void testListenerChanges ()
+    {
+        final Value<Integer> a = Value.create(0);
+        final List<String> seen = new ArrayList<String>();
+        final Value.Listener<Integer> second = new Value.Listener<Integer>() {
+            public void valueChanged (Integer value) {
+                seen.add("second " + value);
+            }
+        };
+        a.addListener(new Value.Listener<Integer>() {
+            public void valueChanged (Integer value) {
+                seen.add("first " + value);
+                a.removeListener(second);
+                a.addListener(this); // added listeners hear about the next change
+                if (value < 2) {
+                    a.update(value + 1); // delivered after this notification
+                }
+            }
+        });
+        a.addListener(second);
+        a.update(1);
+        assertEquals("[first 1, second 1, first 2, first 2]", seen.toString());
+    }
+
+    @Test public void testLazyMap ()
+    {
+        Value<Integer> a = Value.create(1);
+        final int[] calls = new int[1];
+        Value<Integer> doubled = a.map(new Function<Integer, Integer>() {
+            public Integer apply (Integer value) {
+                calls[0]++;
+                return value * 2;
+            }
+        });
+        @SuppressWarnings("unchecked") // sigh
+        Value<Boolean> big = Values.or(doubled.map(new Function<Integer, Boolean>() {
+            public Boolean apply (Integer value) {
+                return value > 10;
+            }
+        }));
+
+        // nothing is computed until it is read, and then only once per update
+        a.update(2);
+        a.update(3);
+        assertEquals(0, calls[0]);
+        assertEquals(6, (int)doubled.get());
+        assertEquals(6, (int)doubled.get());
+        assertFalse(big.get());
+        assertEquals(1, calls[0]);
+        assertEquals(0, a.getListenerCount());
+
+        // listening to a derived value connects it (and its inputs) to its source
+        List<Boolean> seen = record(big);
+        assertEquals(1, a.getListenerCount());
+        a.update(6);
+        assertEquals("[true]", seen.toString());
+        assertEquals(2, calls[0]);
+
+        // and it is disconnected when its last listener goes away
+        big.removeListener(big._listeners.get(0));
+        assertEquals(0, a.getListenerCount());
+        a.update(7);
+        assertEquals(2, calls[0]);
+        assertEquals(14, (int)doubled.get());
+        assertEquals(3, calls[0]);
+    }
+
+    protected static void log (Value<Integer> value, final String name, final List<String> seen)
+    {
+        value.addListener(new Value.Listener<Integer>() {
+            public void valueChanged (Integer value) {
+                seen.add(name + value);
+            }
+        });
+    }
+
+    protected static <T> List<T> record (Value<T> value)
+    {
+        final List<T> seen = new ArrayList<T>();
+        value.addListener(new Value.Listener<T>() {
+            public void valueChanged (T value) {
+                seen.add(value);
+            }
+        });
+        return seen;
+    }
 }
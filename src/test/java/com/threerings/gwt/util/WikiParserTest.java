@@ -21,6 +21,16 @@
 
 package com.threerings.gwt.util;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
 import org.junit.*;
 import static org.junit.Assert.*;
 
@@ -90,5 +100,302 @@ public class WikiParserTest
         assertEquals("<a href=\"http://www.foo.com/\" rel=\"nofollow\">http://www.foo.com/</a> " +
                      "foo <em>bar</em>",
                      WikiParser.renderSnippet("http://www.foo.com/ foo //bar//"));
+        assertEquals("<a href=\"p://p\" rel=\"nofollow\">p://p</a>://m",
+                     WikiParser.renderSnippet("p://p://m"));
+    }
+
+    @Test public void testStreamingRender ()
+        throws Exception
+    {
+        String text = "= Title =\nSome **text**.\n\n* one\n* two\n\n|a|b|\n|c|d|\n" +
+            "{{{\npre\n}}}\n----\n== Sub ==\nhttp://www.foo.com/";
+        StringBuilder out = new StringBuilder();
+        WikiParser.render(text, out);
+        assertEquals(WikiParser.render(text), out.toString());
+    }
+
+    @Test public void testStreamingTOC ()
+        throws Exception
+    {
+        WikiParser parser = new WikiParser() {
+            @Override protected void appendInternalImage (String uri, String text) {
+                sb.append("<<<TOC>>>");
+            }
+        };
+        StringBuilder out = new StringBuilder();
+        parser.doRender("Intro\n\n{{TOC}}\n= One =\n= Two =", out);
+        assertEquals("<p>Intro</p>\n<p><div class='toc'><ul><li><a href='#H1_One'>One </a></li>\n" +
+                     "<li><a href='#H1_Two'>Two </a></li></ul></div></p>\n" +
+                     "<h2 id='H1_One'>One </h2>\n<h2 id='H1_Two'>Two </h2>\n", out.toString());
+    }
+
+    @Test public void testReuse ()
+    {
+        String[] texts = { "= One =\n* a\n* b", "= One =\n|a|b|", "{|\nunclosed", "= One =" };
+        WikiParser parser = new WikiParser();
+        for (String text : texts) {
+            assertEquals(WikiParser.render(text), WikiParser.render(parser, text));
+            assertEquals(WikiParser.renderSnippet(text), WikiParser.renderSnippet(parser, text));
+        }
+
+        WikiParserPool pool = new WikiParserPool(2);
+        for (String text : texts) {
+            assertEquals(WikiParser.render(text), pool.render(text));
+        }
+
+        // a huge document's buffers are not retained
+        StringBuilder huge = new StringBuilder();
+        for (int ii = 0; ii < 20000; ii++) huge.append("Some **text**.\n");
+        WikiParser.render(parser, huge.toString());
+        parser.reset();
+        assertTrue(parser.sb.capacity() <= WikiParser.MAX_RETAINED_CHARS);
+        assertEquals(WikiParser.render(texts[0]), WikiParser.render(parser, texts[0]));
+    }
+
+    @Test public void testRenderCache ()
+    {
+        WikiRenderCache cache = new WikiRenderCache(2, 1000);
+        WikiParser parser = new WikiParser();
+        WikiParser shifted = new WikiParser() {{ HEADING_LEVEL_SHIFT = 2; }};
+
+        assertEquals(WikiParser.render("= Hi ="), cache.render(parser, "= Hi ="));
+        assertEquals(WikiParser.render("= Hi ="), cache.render(parser, "\r\n= Hi =  \n"));
+        assertEquals(WikiParser.renderSnippet("= Hi ="), cache.renderSnippet(parser, "= Hi ="));
+        assertEquals("<h3 id='H1_Hi'>Hi </h3>\n", cache.render(shifted, "= Hi ="));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.size());
+
+        // renders heavier than the cache are not cached
+        StringBuilder big = new StringBuilder();
+        for (int ii = 0; ii < 100; ii++) big.append("word ");
+        cache.render(parser, big.toString());
+        cache.render(parser, big.toString());
+        assertEquals(5, cache.getMisses());
+        assertTrue(cache.getWeight() <= 1000);
+    }
+
+    @Test public void testIncrementalRender ()
+    {
+        String[] pieces = {
+            "= H =\n", "== H ==\n", "t ", "**", "//", "\n", "\n\n", "* ", "# ", "> ", ": ", "|",
+            "{|\n", "|-\n", "|}\n", "{{{", "}}}", "[[", "]]", "{{", "}}", "http://e.com/x ", "----",
+            "~", "`", " -- ", "\\\\", "<<<TOC>>>", "=", "-", "__", "##" };
+        IncrementalWikiRenderer renderer = new IncrementalWikiRenderer();
+        StringBuilder text = new StringBuilder();
+        for (int seed = 0; seed < 100; seed++) {
+            Random rand = new Random(seed);
+            renderer.clear();
+            text.setLength(0);
+            for (int ii = 0; ii < 30; ii++) text.append(pieces[rand.nextInt(pieces.length)]);
+            for (int ii = 0; ii < 200; ii++) {
+                int pos = rand.nextInt(text.length() + 1);
+                if (rand.nextBoolean() || text.length() < 20) {
+                    text.insert(pos, pieces[rand.nextInt(pieces.length)]);
+                } else {
+                    text.delete(pos, Math.min(text.length(), pos + 1 + rand.nextInt(3)));
+                }
+                String wiki = text.toString();
+                assertEquals(wiki, WikiParser.render(wiki), renderer.render(wiki));
+            }
+        }
+
+        // an edit at the end of a long document only re-parses the last few chunks
+        text.setLength(0);
+        for (int ii = 0; ii < 50; ii++) text.append("= Title =\nSome text.\n\n");
+        renderer.render(text.toString());
+        assertTrue(renderer.getChunkCount() > 100);
+        text.append("More");
+        assertEquals(WikiParser.render(text.toString()), renderer.render(text.toString()));
+        assertTrue(renderer.getParsedChunkCount() <= 4);
+
+        // as does inserting a heading at the start, though every anchor id changes
+        text.insert(0, "= Title =\n");
+        assertEquals(WikiParser.render(text.toString()), renderer.render(text.toString()));
+        assertTrue(renderer.getParsedChunkCount() <= 4);
+    }
+
+    @Test public void testSink ()
+    {
+        assertEquals("[startHeading 1, text Title , endHeading 1, startParagraph, text Some , " +
+                     "startFormat STRONG, text bold, endFormat STRONG, text  , " +
+                     "link http://x.com x, endParagraph, startList BULLET, startListItem, " +
+                     "text a, startList NUMBERED, startListItem, code b, endListItem, " +
+                     "endList NUMBERED, endListItem, startListItem, image pic.png pic, " +
+                     "endListItem, endList BULLET, startTable false, startTableRow, " +
+                     "startTableCell true 1, text c, endTableCell, startTableCell false 2, " +
+                     "nowiki d, endTableCell, endTableRow, endTable, preformatted e]",
+                     events("= Title =\nSome **bold** [[http://x.com|x]]\n* a\n*# `b`\n" +
+                            "* {{pic.png|pic}}\n|=c||{{{d}}}|\n{{{\ne\n}}}", false));
+        assertEquals("[startTable true, startTableRow, startTableCell false 1, startParagraph, " +
+                     "text a, endParagraph, endTableCell, startTableCell false 1, " +
+                     "startParagraph, text b, lineBreak, text c, endParagraph, endTableCell, " +
+                     "endTableRow, endTable]", events("{|\na\n|\nb\\\\c", false));
+        assertEquals("[text a , startFormat EMPHASIS, text b, endFormat EMPHASIS, " +
+                     "text  , text http://c.d]", events("a //b// ~http://c.d", true));
+        assertEquals("[text http://c.d/?a=1&b=2]", events("~http://c.d/?a=1&b=2", true));
+        assertEquals("http://c.d/?a=1&amp;b=2", WikiParser.renderSnippet("~http://c.d/?a=1&b=2"));
+    }
+
+    @Test public void testLimits ()
+        throws Exception
+    {
+        WikiLimits limits = new WikiLimits(10, 10, 10, 10000);
+        WikiParser parser = new WikiParser();
+        parser.setLimits(limits);
+        assertEquals("<p>**way** too &lt;long&gt;</p>\n",
+                     WikiParser.render(parser, "**way** too <long>"));
+        assertEquals("**way** too &lt;long&gt;",
+                     WikiParser.renderSnippet(parser, "**way** too <long>"));
+        assertEquals("<p><strong>ok</strong></p>\n", WikiParser.render(parser, "**ok**"));
+        assertEquals(3, limits.getRenders());
+        assertEquals(2, limits.getTrips(WikiLimits.Budget.LENGTH));
+
+        limits = new WikiLimits(1000, 1, 10, 10000);
+        parser.setLimits(limits);
+        assertEquals("<ul><li>a</li>\n<li>* b</li></ul>\n<p><strong>a //b// c</strong></p>\n",
+                     WikiParser.render(parser, "* a\n** b\n\n**a //b// c**"));
+        assertEquals(1, limits.getTrips(WikiLimits.Budget.DEPTH));
+
+        limits = new WikiLimits(1000, 10, 1, 10000);
+        parser.setLimits(limits);
+        assertEquals("<p><a href=\"#\" title=\"Internal link\">a</a> c e</p>\n",
+                     WikiParser.render(parser, "[[a]] [[b|c]] {{d.png|e}}"));
+        assertEquals(1, limits.getTrips(WikiLimits.Budget.LINKS));
+
+        // the block during which the work runs out is rendered as plain text, as is the rest
+        limits = new WikiLimits(1000, 10, 10, 5);
+        parser.setLimits(limits);
+        assertEquals("<ul><li>a</li></ul>\n<p>* b\n\n**last**</p>\n",
+                     WikiParser.render(parser, "* a\n* b\n\n**last**"));
+        StringBuilder out = new StringBuilder();
+        WikiParser.render(parser, "* a\n* b\n\n**last**", out);
+        assertEquals("<ul><li>a</li></ul>\n<p>* b\n\n**last**</p>\n", out.toString());
+        assertEquals(2, limits.getTrips(WikiLimits.Budget.WORK));
+
+        // an empty preformatted block is rendered (and used to break the parser)
+        limits = new WikiLimits(100000, 5, 10, 100000);
+        parser.setLimits(limits);
+        assertEquals("<pre></pre>\n", WikiParser.render(parser, "{{{\n}}}"));
+        assertEquals("<p>a\n</p><pre></pre>\n<p></p>\n", WikiParser.render(parser, "a\n{{{\n}}}"));
+        assertEquals(0, limits.getTrips(WikiLimits.Budget.WORK));
+
+        // if the parser fails anyway, the rest of the text is rendered as plain text
+        WikiParser failing = new WikiParser() {
+            @Override protected void appendInternalLink (String uri, String text) {
+                throw new IllegalStateException();
+            }
+        };
+        failing.setLimits(limits);
+        assertEquals("<p>a</p>\n<p>[[b]]</p>\n", WikiParser.render(failing, "a\n\n[[b]]"));
+        assertEquals("[[b]]", WikiParser.renderSnippet(failing, "[[b]]"));
+        assertEquals(2, limits.getTrips(WikiLimits.Budget.WORK));
+
+        // generous limits change nothing
+        parser.setLimits(new WikiLimits(1000, 10, 10, 10000));
+        String text = "= A =\n* a **b //c//**\n|x|[[y]]|\n{|\nz\n|}";
+        assertEquals(WikiParser.render(text), WikiParser.render(parser, text));
+    }
+
+    @Test public void testResolveInternalTargets ()
+    {
+        final List<String> resolved = new ArrayList<String>();
+        WikiParser parser = new WikiParser() {
+            { RESOLVE_INTERNAL_TARGETS = true; }
+            @Override protected void resolveInternalTargets (
+                Set<String> links, Set<String> images) {
+                resolved.add(links + " " + images);
+            }
+            @Override protected void appendInternalLink (String uri, String text) {
+                sb.append(resolved.get(0).contains(uri) ? "ok" : "missed");
+            }
+        };
+        assertEquals("<p>ok ok <a href=\"http://x.com\" rel=\"nofollow\">x</a></p>\n<ul><li>ok " +
+                     "<img src=\"http://y.com/i.png\" alt=\"http://y.com/i.png\" " +
+                     "title=\"http://y.com/i.png\" />&lt;&lt;&lt;Internal image(?): pic.png " +
+                     "pic.png&gt;&gt;&gt;</li></ul>\n",
+                     WikiParser.render(parser, "[[Page|a]] [[ Other ]] [[http://x.com|x]]\n" +
+                                       "* [[Page]] {{http://y.com/i.png}}{{pic.png}}"));
+        assertEquals("[Page, Other] [pic.png]", resolved.get(0));
+
+        // documents without internal targets don't call the resolver
+        WikiParser.render(parser, "No links, http://x.com/ [[http://y.com]]");
+        assertEquals(1, resolved.size());
+        // but the scan may collect targets that aren't rendered
+        WikiParser.render(parser, "~[[Escaped]]");
+        assertEquals("[Escaped] []", resolved.get(1));
+        // no more targets are collected than links may be rendered
+        parser.setLimits(new WikiLimits(1000, 10, 2, 10000));
+        WikiParser.render(parser, "[[a]] {{b}} [[c]] {{d}}");
+        assertEquals("[a] [b]", resolved.get(2));
+    }
+
+    protected static String events (String wikiText, boolean snippet)
+    {
+        final List<String> events = new ArrayList<String>();
+        WikiSink sink = (WikiSink)Proxy.newProxyInstance(
+            WikiSink.class.getClassLoader(), new Class<?>[] { WikiSink.class },
+            new InvocationHandler() {
+                public Object invoke (Object proxy, Method method, Object[] args) {
+                    StringBuilder buf = new StringBuilder(method.getName());
+                    for (Object arg : (args == null) ? new Object[0] : args) {
+                        buf.append(" ").append(arg);
+                    }
+                    events.add(buf.toString());
+                    return null;
+                }
+            });
+        if (snippet) {
+            WikiParser.parseSnippet(wikiText, sink);
+        } else {
+            WikiParser.parse(wikiText, sink);
+        }
+        return events.toString();
+    }
+
+    @Test public void testGoldenCorpus ()
+        throws Exception
+    {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+            getClass().getResourceAsStream("WikiParserTest.txt"), "UTF-8"));
+        WikiParser parser = new WikiParser();
+        int count = 0;
+        for (String line; (line = in.readLine()) != null; ) {
+            if (line.startsWith("#")) continue;
+            String[] bits = line.split("\t", -1);
+            String wiki = unescape(bits[1]), expect = unescape(bits[2]);
+            if (bits[0].equals("S")) {
+                assertEquals(wiki, expect, WikiParser.renderSnippet(parser, wiki));
+            } else {
+                assertEquals(wiki, expect, WikiParser.render(parser, wiki));
+            }
+            count++;
+        }
+        in.close();
+        assertTrue(count > 100);
+    }
+
+    protected static String unescape (String text)
+    {
+        StringBuilder buf = new StringBuilder();
+        for (int ii = 0; ii < text.length(); ii++) {
+            char c = text.charAt(ii);
+            if (c != '\\') {
+                buf.append(c);
+                continue;
+            }
+            switch (c = text.charAt(++ii)) {
+            case 'n': buf.append('\n'); break;
+            case 'r': buf.append('\r'); break;
+            case 't': buf.append('\t'); break;
+            case 'u':
+                buf.append((char)Integer.parseInt(text.substring(ii+1, ii+5), 16));
+                ii += 4;
+                break;
+            default: buf.append(c); break;
+            }
+        }
+        return buf.toString();
     }
 }
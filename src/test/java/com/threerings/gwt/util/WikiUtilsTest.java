@@ -21,6 +21,12 @@
 
 package com.threerings.gwt.util;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
 import org.junit.*;
 import static org.junit.Assert.*;
 
@@ -53,4 +59,187 @@ public class WikiUtilsTest
             assertFalse(invalid + " is invalid.", WikiUtils.isURI(invalid));
         }
     }
+
+    @Test public void testPreprocessWikiText ()
+    {
+        assertEquals("", WikiUtils.preprocessWikiText(null));
+        assertEquals("", WikiUtils.preprocessWikiText(" \r\n\t "));
+        assertEquals("a\nb\nc\n\n  d e", WikiUtils.preprocessWikiText(" a\r\nb\rc\n \t\n  d e\n"));
+
+        char[] buf = new char[32];
+        String text = "one\r\n  \r\n  two  \n three";
+        int length = WikiUtils.preprocessWikiText(text, buf);
+        assertEquals("one\n\n  two  \n three", new String(buf, 0, length));
+        assertEquals(0, WikiUtils.preprocessWikiText(null, buf));
+    }
+
+    @Test public void testEscapeHTML ()
+    {
+        String plain = "Nothing to escape here.";
+        assertSame(plain, WikiUtils.escapeHTML(plain));
+        assertEquals("", WikiUtils.escapeHTML(null));
+        assertEquals("&lt;a href=&quot;x&quot;&gt;&amp;&apos;&mdash;&euro;&laquo;&lt;",
+                     WikiUtils.escapeHTML("<a href=\"x\">&'\u2014\u20AC\u00AB<"));
+
+        StringBuilder buf = new StringBuilder("[");
+        WikiUtils.escapeHTML("x<y>z", 1, 4, buf);
+        assertEquals("[&lt;y&gt;", buf.toString());
+    }
+
+    @Test public void testUnescapeHTML ()
+    {
+        String[] texts = {
+            "plain", "&lt;&gt;&amp;&quot;&apos;&nbsp;&shy;&copy;&reg;&trade;&mdash;&ndash;",
+            "&ldquo;&rdquo;&euro;&middot;&bull;&laquo;&raquo;", "&#65;&#x42;&#-1;&#+67;&#;&#x;",
+            "&#2147483647;&#2147483648;&#-2147483648;&#65601;&#xFFFFFFFF;&#x1F600;&#\u0661\u0662;",
+            "&bogus; & alone; &amp &; &&amp; &Amp; &verylongentityname; &ampamp;",
+            "trailing &", "&lt", "&#", "&#x", "a&lt;b&gt;c",
+        };
+        for (String text : texts) {
+            assertEquals(text, oldUnescapeHTML(text), WikiUtils.unescapeHTML(text));
+            StringBuilder buf = new StringBuilder();
+            WikiUtils.reescapeHTML(text, 0, text.length(), buf);
+            assertEquals(text, WikiUtils.escapeHTML(oldUnescapeHTML(text)), buf.toString());
+        }
+        assertNull(WikiUtils.unescapeHTML(null));
+    }
+
+    @Test public void testURIsMatchRegex ()
+    {
+        for (String uri : uriCorpus()) {
+            assertEquals(uri, regexIsURI(uri), WikiUtils.isURI(uri));
+            assertEquals(uri, regexIsAbsoluteURI(uri), WikiUtils.isAbsoluteURI(uri));
+        }
+    }
+
+    @Test public void testAnchorIdMatchesRegex ()
+    {
+        String chars = "aZ9_-<>/&; \t\n\r\u000B\f\u0001\u0085\u2028\ufffd\u00e9!";
+        Random rand = new Random(42);
+        for (int ii = 0; ii < 20000; ii++) {
+            StringBuilder text = new StringBuilder();
+            for (int cc = rand.nextInt(16); cc > 0; cc--) {
+                text.append(chars.charAt(rand.nextInt(chars.length())));
+            }
+            for (boolean stripTags : new boolean[] { true, false }) {
+                StringBuilder buf = new StringBuilder("H1_");
+                WikiUtils.appendAnchorId(text.toString(), stripTags, buf);
+                assertEquals(text.toString(), "H1_" + regexAnchorId(text.toString(), stripTags),
+                             buf.toString());
+            }
+        }
+    }
+
+    /**
+     * Builds a corpus of URI-like strings from all combinations of a selection of interesting
+     * components, plus some random noise drawn from the characters that matter to the grammar.
+     */
+    protected static List<String> uriCorpus ()
+    {
+        String[] schemes = { "http://", "a_1://", "://", "http:/", "ht-tp://", "http:///" };
+        String[] users = { "", "joe:pw@", "joe@", ":pw@", "j@o:pw@" };
+        String[] hosts = { "", "host", "a.b-c.com", "h?q", "h#f", "h@x", "h?q:80/p", "h#f\u2028" };
+        String[] ports = { "", ":80", ":", ":8a" };
+        String[] paths = { "", "/", "/p/q/", "//", "/p?", "/\u2028" };
+        String[] tails = { "", "?a=b&c", "?a#b", "#", "#a#b?c", "#x\u2028", "?\u0085",
+                           " ", "\t#", "#\n" };
+        List<String> corpus = new ArrayList<String>();
+        for (String scheme : schemes) {
+            for (String user : users) {
+                for (String host : hosts) {
+                    for (String port : ports) {
+                        for (String path : paths) {
+                            for (String tail : tails) {
+                                corpus.add(scheme + user + host + port + path + tail);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        Random rand = new Random(42);
+        String chars = "ab1_:/@?#.-~% \u2028";
+        for (int ii = 0; ii < 5000; ii++) {
+            StringBuilder buf = new StringBuilder("http://");
+            for (int cc = rand.nextInt(12); cc > 0; cc--) {
+                buf.append(chars.charAt(rand.nextInt(chars.length())));
+            }
+            corpus.add(buf.toString());
+        }
+        for (String uri : VALID_URIS) corpus.add(uri);
+        for (String uri : INVALID_URIS) corpus.add(uri);
+        return corpus;
+    }
+
+    /** The regular expression based implementation of {@link WikiUtils#appendAnchorId}. */
+    protected static String regexAnchorId (String text, boolean stripTags)
+    {
+        return WikiUtils.translit(stripTags ? text.replaceAll("<.+?>", "") : text).trim().
+            replaceAll("\\s+", "_").replaceAll("[^a-zA-Z0-9_-]", "");
+    }
+
+    /**
+     * The regular expression based implementation of {@link WikiUtils#isURI}. The whitespace check
+     * in the original missed whitespace in strings that also contained line separators (which
+     * {@code .} does not match), so we reject those explicitly.
+     */
+    protected static boolean regexIsURI (String uri)
+    {
+        return !uri.matches("(?s).*\\s.*") && uri.matches(URL_REGEX);
+    }
+
+    /** The regular expression based implementation of {@link WikiUtils#isAbsoluteURI}. */
+    protected static boolean regexIsAbsoluteURI (String uri)
+    {
+        return uri.matches("\\w+://.*");
+    }
+
+    protected static final String URL_REGEX =
+        "\\w+://" +            // pcol://
+        "([^:@]+(:[^@]+)@)?" + // (username(:password)@)
+        "[^:/]+(:\\d+)?" +     // hostname(:port)
+        "(/[^/#?]+)*/?" +      // (/pathseg(/pathseg))(/)
+        "(\\?[^#]*)?(#.*)?";   // (?query)(#hash)
+
+    /** The map based implementation of {@link WikiUtils#unescapeHTML}. */
+    protected static String oldUnescapeHTML (String value)
+    {
+        Map<String, Character> ent = new HashMap<String, Character>();
+        String names = "lt gt amp quot apos nbsp shy copy reg trade mdash ndash ldquo rdquo euro " +
+            "middot bull laquo raquo";
+        String chars = "<>&\"'\u00A0\u00AD\u00A9\u00AE\u2122\u2014\u2013\u201C\u201D\u20AC" +
+            "\u00B7\u2022\u00AB\u00BB";
+        int idx = 0;
+        for (String name : names.split(" ")) ent.put(name, chars.charAt(idx++));
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '&') {
+                char ce = 0;
+                int i1 = value.indexOf(';', i+1);
+                if (i1 > i && i1-i <= 12) {
+                    if (value.charAt(i+1) == '#') {
+                        if (value.charAt(i+2) == 'x') {
+                            ce = (char)WikiUtils.atoi(value.substring(i+3, i1), 16);
+                        } else {
+                            ce = (char)WikiUtils.atoi(value.substring(i+2, i1));
+                        }
+                    } else {
+                        Character ceObj = ent.get(value.substring(i+1, i1));
+                        ce = ceObj == null ? 0 : ceObj.charValue();
+                    }
+                }
+                if (ce > 0) {
+                    sb.append(ce);
+                    i = i1;
+                } else {
+                    sb.append(c);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
 }